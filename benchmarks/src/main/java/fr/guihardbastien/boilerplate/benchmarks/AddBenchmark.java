@@ -0,0 +1,47 @@
+package fr.guihardbastien.boilerplate.benchmarks;
+
+import fr.guihardbastien.boilerplate.TaggedBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// Filling a buffer with all the values of the state, one add at a time or as a batch
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class AddBenchmark {
+
+    @Benchmark
+    public TaggedBuffer<Integer> add(BufferState state) {
+        var buffer = new TaggedBuffer<>(state.predicate);
+        for (var value : state.values) {
+            buffer.add(value);
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    public TaggedBuffer<Integer> addPresized(BufferState state) {
+        var buffer = new TaggedBuffer<>(state.predicate, state.size);
+        for (var value : state.values) {
+            buffer.add(value);
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    public TaggedBuffer<Integer> addAll(BufferState state) {
+        var buffer = new TaggedBuffer<>(state.predicate);
+        buffer.addAll(Arrays.asList(state.values));
+        return buffer;
+    }
+}
@@ -0,0 +1,47 @@
+package fr.guihardbastien.boilerplate.benchmarks;
+
+import fr.guihardbastien.boilerplate.TaggedBuffer;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.function.Predicate;
+
+// Buffer of size elements, a share density of them tagged by a predicate costing predicateCost CPU tokens
+@State(Scope.Benchmark)
+public class BufferState {
+    private static final int DENSITY_SCALE = 100_000;
+
+    @Param({"1000", "1000000"})
+    public int size;
+
+    @Param({"0.001", "0.01", "0.5", "1.0"})
+    public double density;
+
+    @Param({"0", "100"})
+    public int predicateCost;
+
+    public Integer[] values;
+    public Predicate<Integer> predicate;
+    public TaggedBuffer<Integer> buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var random = new Random(0);
+        values = random.ints(size, 0, DENSITY_SCALE).boxed().toArray(Integer[]::new); // tagged at random positions
+        var threshold = (int) (density * DENSITY_SCALE);
+        var cost = predicateCost;
+        predicate = value -> {
+            Blackhole.consumeCPU(cost);
+            return value < threshold;
+        };
+        buffer = new TaggedBuffer<>(predicate);
+        for (var value : values) {
+            buffer.add(value);
+        }
+    }
+}
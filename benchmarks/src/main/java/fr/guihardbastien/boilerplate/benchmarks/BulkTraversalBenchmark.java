@@ -0,0 +1,73 @@
+package fr.guihardbastien.boilerplate.benchmarks;
+
+import fr.guihardbastien.boilerplate.TaggedBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Element at a time traversals (hasNext/next, tryAdvance) against the bulk forEachRemaining ones, on 10M elements
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Xmx4g"})
+public class BulkTraversalBenchmark {
+    private static final int SIZE = 10_000_000;
+
+    @Param({"0.01", "0.5", "1.0"})
+    public double density;
+
+    @Param({"true", "false"})
+    public boolean onlyTagged;
+
+    private TaggedBuffer<Integer> buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var random = new Random(0);
+        var threshold = density;
+        buffer = new TaggedBuffer<>(value -> random.nextDouble() < threshold, SIZE); // tagged at random positions
+        for (var i = 0; i < SIZE; i++) {
+            buffer.add(i);
+        }
+    }
+
+    @Benchmark
+    public void iteratorNext(Blackhole blackhole) {
+        for (var iterator = buffer.iterator(onlyTagged); iterator.hasNext(); ) {
+            blackhole.consume(iterator.next());
+        }
+    }
+
+    @Benchmark
+    public void iteratorForEachRemaining(Blackhole blackhole) {
+        buffer.iterator(onlyTagged).forEachRemaining(blackhole::consume);
+    }
+
+    @Benchmark
+    public void spliteratorTryAdvance(Blackhole blackhole) {
+        var spliterator = buffer.stream(onlyTagged).spliterator();
+        while (spliterator.tryAdvance(blackhole::consume)) {
+            // consumed
+        }
+    }
+
+    @Benchmark
+    public void spliteratorForEachRemaining(Blackhole blackhole) {
+        buffer.stream(onlyTagged).spliterator().forEachRemaining(blackhole::consume);
+    }
+}
@@ -0,0 +1,69 @@
+package fr.guihardbastien.boilerplate.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Every read path of a filled buffer, over all its elements or only the tagged ones
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class ReadBenchmark {
+
+    @Param({"true", "false"})
+    public boolean onlyTagged;
+
+    @Benchmark
+    public int size(BufferState state) {
+        return state.buffer.size(onlyTagged);
+    }
+
+    @Benchmark
+    public Optional<Integer> findFirst(BufferState state) {
+        return state.buffer.findFirst(onlyTagged);
+    }
+
+    @Benchmark
+    public void forEach(BufferState state, Blackhole blackhole) {
+        state.buffer.forEach(onlyTagged, blackhole::consume);
+    }
+
+    @Benchmark
+    public void iterator(BufferState state, Blackhole blackhole) {
+        for (var iterator = state.buffer.iterator(onlyTagged); iterator.hasNext(); ) {
+            blackhole.consume(iterator.next());
+        }
+    }
+
+    @Benchmark
+    public void asTaggedListGet(BufferState state, Blackhole blackhole) {
+        var list = state.buffer.asTaggedList();
+        for (var i = 0; i < list.size(); i++) {
+            blackhole.consume(list.get(i));
+        }
+    }
+
+    @Benchmark
+    public long stream(BufferState state) {
+        return state.buffer.stream(onlyTagged).mapToLong(Integer::longValue).sum();
+    }
+
+    @Benchmark
+    public long parallelStream(BufferState state) {
+        return state.buffer.parallelStream(onlyTagged).mapToLong(Integer::longValue).sum();
+    }
+}
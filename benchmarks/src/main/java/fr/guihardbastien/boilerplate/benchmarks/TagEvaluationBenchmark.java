@@ -0,0 +1,72 @@
+package fr.guihardbastien.boilerplate.benchmarks;
+
+import fr.guihardbastien.boilerplate.IntTagPredicate;
+import fr.guihardbastien.boilerplate.IntTaggedBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+// Bulk add of 1M ints tagged by a structured predicate, evaluated 64 values at a time, or by the same test as a lambda
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class TagEvaluationBenchmark {
+    private static final int SIZE = 1_000_000;
+
+    @Param({"range", "modulo", "bitmask"})
+    public String form;
+
+    private int[] values;
+    private IntTagPredicate structured;
+    private IntPredicate lambda;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        values = new Random(0).ints(SIZE, 0, 1_000).toArray(); // random tags, so a branch per value mispredicts
+        switch (form) {
+            case "range" -> {
+                structured = IntTagPredicate.between(250, 749);
+                lambda = value -> value >= 250 && value <= 749;
+            }
+            case "modulo" -> {
+                structured = IntTagPredicate.modulo(3, 0);
+                lambda = value -> value % 3 == 0;
+            }
+            case "bitmask" -> {
+                structured = IntTagPredicate.bitmask(0x3, 0x1);
+                lambda = value -> (value & 0x3) == 0x1;
+            }
+            default -> throw new IllegalArgumentException(form);
+        }
+    }
+
+    @Benchmark
+    public IntTaggedBuffer structured() {
+        var buffer = new IntTaggedBuffer(structured);
+        buffer.addAll(values, 0, SIZE);
+        return buffer;
+    }
+
+    @Benchmark
+    public IntTaggedBuffer lambda() {
+        var buffer = new IntTaggedBuffer(lambda);
+        buffer.addAll(values, 0, SIZE);
+        return buffer;
+    }
+}
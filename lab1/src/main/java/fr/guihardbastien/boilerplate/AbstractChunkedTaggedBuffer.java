@@ -0,0 +1,346 @@
+package fr.guihardbastien.boilerplate;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.IntToLongFunction;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// TaggedBuffer keeping its elements outside the Java heap as fixed-width records written by a RecordCodec.
+// Storage comes in chunks of 64K slots that are never copied: the tag bits of a chunk, then its records.
+// Subclasses decide where a chunk lives; chunks are loaded on first access.
+// close() releases the storage, using the buffer or a view of it afterwards throws IllegalStateException.
+// The storage is freed at once and the closed flag is not synchronized, so close() must not run while another thread
+// uses the buffer or a view of it, e.g. a parallel stream: such a reader may read freed memory and crash the JVM.
+abstract class AbstractChunkedTaggedBuffer<T> implements AutoCloseable {
+    static final int CHUNK_SHIFT = 16;
+    static final int CHUNK_SLOTS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SLOTS - 1;
+    private static final int TAG_BYTES = CHUNK_SLOTS >>> 3;
+    private static final int MAX_CHUNKS = Integer.MAX_VALUE >>> CHUNK_SHIFT;
+    private static final VarHandle CHUNKS = MethodHandles.arrayElementVarHandle(ByteBuffer[].class);
+
+    private int eltSize = 0;
+    private int filteredEltSize = 0;
+    private boolean closed;
+
+    private final Predicate<? super T> predicate;
+    private final RecordCodec<T> codec;
+    private final int recordSize;
+    private ByteBuffer[] chunks = new ByteBuffer[4];
+    private int chunkCount;
+
+    AbstractChunkedTaggedBuffer(RecordCodec<T> codec, Predicate<? super T> fun) {
+        Objects.requireNonNull(codec);
+        Objects.requireNonNull(fun);
+        var recordSize = codec.recordSize();
+        if (recordSize <= 0 || recordSize > (Integer.MAX_VALUE - TAG_BYTES) / CHUNK_SLOTS) {
+            throw new IllegalArgumentException("invalid record size: " + recordSize);
+        }
+        this.codec = codec;
+        this.recordSize = recordSize;
+        this.predicate = fun;
+    }
+
+    final int chunkBytes() {
+        return TAG_BYTES + CHUNK_SLOTS * recordSize;
+    }
+
+    // storage of a chunk; slots at or past the size may hold stale tags, e.g. appended to a file but never counted
+    // in its header, add writes the tag bit of every slot it fills
+    abstract ByteBuffer loadChunk(int chunkIndex);
+
+    // called once by close(), before the chunks are released
+    void closing() {
+        // nothing by default
+    }
+
+    // called once by close(), after the chunks have been released
+    void closed() {
+        // nothing by default
+    }
+
+    // adopts existing storage holding eltSize elements, its chunks are loaded lazily
+    void restore(int eltSize, int filteredEltSize) {
+        this.eltSize = eltSize;
+        this.filteredEltSize = filteredEltSize;
+        this.chunkCount = (eltSize + CHUNK_MASK) >>> CHUNK_SHIFT;
+        this.chunks = new ByteBuffer[Math.max(4, chunkCount)];
+    }
+
+    private void grow() {
+        if (eltSize == chunkCount << CHUNK_SHIFT) {
+            if (chunkCount == MAX_CHUNKS) {
+                throw new IllegalStateException("buffer is full");
+            }
+            if (chunkCount == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            }
+            chunks[chunkCount] = loadChunk(chunkCount);
+            chunkCount++;
+        }
+    }
+
+    private ByteBuffer chunk(int index) {
+        if (closed) {
+            throw new IllegalStateException("buffer is closed");
+        }
+        var chunkIndex = index >>> CHUNK_SHIFT;
+        var chunk = (ByteBuffer) CHUNKS.getAcquire(chunks, chunkIndex);
+        if (chunk == null) {
+            return lazyChunk(chunkIndex);
+        }
+        return chunk;
+    }
+
+    // readers of a parallel stream may race to load the same chunk
+    private synchronized ByteBuffer lazyChunk(int chunkIndex) {
+        var chunk = chunks[chunkIndex];
+        if (chunk == null) {
+            chunk = loadChunk(chunkIndex);
+            CHUNKS.setRelease(chunks, chunkIndex, chunk);
+        }
+        return chunk;
+    }
+
+    private T read(int index) {
+        return codec.read(chunk(index), TAG_BYTES + (index & CHUNK_MASK) * recordSize);
+    }
+
+    // tag words of a chunk
+    private static IntToLongFunction tagWords(ByteBuffer chunk) {
+        return wordIndex -> chunk.getLong(wordIndex << 3);
+    }
+
+    // index of the first tagged slot in [from, end), or end if there is none
+    private int nextTagged(int from, int end) {
+        while (from < end) {
+            var base = from & ~CHUNK_MASK;
+            var next = TagIndex.nextSet(tagWords(chunk(from)), from - base, Math.min(end - base, CHUNK_SLOTS));
+            if (next != CHUNK_SLOTS) {
+                return base + next;
+            }
+            from = base + CHUNK_SLOTS;
+        }
+        return end;
+    }
+
+    // slot of the k-th tagged element at or after from, there must be more than k of them
+    private int selectTagged(int from, int k) {
+        for (;;) {
+            var base = from & ~CHUNK_MASK;
+            var words = tagWords(chunk(from));
+            var count = TagIndex.countSet(words, from - base, CHUNK_SLOTS);
+            if (k < count) {
+                return base + TagIndex.selectSet(words, from - base, k);
+            }
+            k -= count;
+            from = base + CHUNK_SLOTS;
+        }
+    }
+
+    public void add(T elt) {
+        Objects.requireNonNull(elt);
+        if (closed) {
+            throw new IllegalStateException("buffer is closed");
+        }
+        grow();
+        var chunk = chunk(eltSize);
+        var slot = eltSize & CHUNK_MASK;
+        codec.write(chunk, TAG_BYTES + slot * recordSize, elt);
+        var wordOffset = (slot >>> 6) << 3;
+        var word = chunk.getLong(wordOffset);
+        if (this.predicate.test(elt)) {
+            chunk.putLong(wordOffset, word | (1L << slot));
+            filteredEltSize++;
+        } else {
+            chunk.putLong(wordOffset, word & ~(1L << slot)); // the slot may hold the tag of an element never counted
+        }
+        eltSize++;
+    }
+
+    public int size(boolean onlyTagged) {
+        if (onlyTagged) {
+            return this.filteredEltSize;
+        } else {
+            return this.eltSize;
+        }
+    }
+
+    public Optional<T> findFirst(boolean onlyTagged) {
+        var first = onlyTagged ? nextTagged(0, eltSize) : 0;
+        return first == eltSize ? Optional.empty() : Optional.of(read(first));
+    }
+
+    public void forEach(boolean onlyTagged, Consumer<? super T> fun) {
+        Objects.requireNonNull(fun);
+        var size = this.eltSize;
+        if (onlyTagged) {
+            for (var i = nextTagged(0, size); i < size; i = nextTagged(i + 1, size)) {
+                fun.accept(read(i));
+            }
+        } else {
+            for (var i = 0; i < size; i++) {
+                fun.accept(read(i));
+            }
+        }
+    }
+
+    public Iterator<T> iterator(boolean onlyTagged) {
+
+        return new Iterator<T>() {
+            private final int maxSize = eltSize;
+            private final int maxTaggedElements = filteredEltSize;
+            private int startLookup = 0; // index of the next element to be returned by next
+            private int nbReturn;
+
+            @Override
+            public boolean hasNext() {
+                if (onlyTagged) {
+                    return nbReturn < maxTaggedElements;
+                } else {
+                    return nbReturn < maxSize;
+                }
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                var next = onlyTagged ? nextTagged(startLookup, maxSize) : startLookup;
+                startLookup = next + 1;
+                nbReturn++;
+                return read(next);
+            }
+        };
+    }
+
+    public Stream<T> stream(boolean onlyTagged) {
+        return stream(onlyTagged, false, 1);
+    }
+
+    public Stream<T> parallelStream(boolean onlyTagged) {
+        return parallelStream(onlyTagged, TagIndex.PARALLEL_THRESHOLD);
+    }
+
+    // stays sequential when there are fewer than minSplitSize elements, and never splits below minSplitSize
+    public Stream<T> parallelStream(boolean onlyTagged, int minSplitSize) {
+        if (minSplitSize < 1) {
+            throw new IllegalArgumentException("minSplitSize must be positive: " + minSplitSize);
+        }
+        return stream(onlyTagged, size(onlyTagged) >= minSplitSize, minSplitSize);
+    }
+
+    private Stream<T> stream(boolean onlyTagged, boolean parallel, int minSplitSize) {
+        if (onlyTagged) {
+            return StreamSupport.stream(createSpliteratorOnlyTagged(0, this.eltSize, this.filteredEltSize, minSplitSize), parallel);
+        } else {
+            return StreamSupport.stream(createSpliterator(0, this.eltSize, minSplitSize), parallel);
+        }
+    }
+
+    // covers the taggedCount tagged slots of [start, end)
+    private Spliterator<T> createSpliteratorOnlyTagged(int start, int end, int taggedCount, int minSplitSize) {
+
+        return new Spliterator<T>() {
+
+            private int i = start;
+            private int remaining = taggedCount;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> consumer) {
+                if (remaining == 0) {
+                    return false;
+                }
+                i = nextTagged(i, end);
+                consumer.accept(read(i));
+                i++;
+                remaining--;
+                return true;
+            }
+
+            @Override
+            public Spliterator<T> trySplit() {
+                var half = remaining >>> 1;
+                if (half < minSplitSize) {
+                    return null;
+                }
+                var middle = selectTagged(i, half); // median tagged element, so both halves get the same work
+                var spliterator = createSpliteratorOnlyTagged(i, middle, half, minSplitSize);
+                i = middle;
+                remaining -= half;
+                return spliterator;
+            }
+
+            @Override
+            public long estimateSize() {
+                return remaining;
+            }
+
+            @Override
+            public int characteristics() {
+                return NONNULL | ORDERED | SIZED | SUBSIZED;
+            }
+        };
+    }
+
+    private Spliterator<T> createSpliterator(int start, int end, int minSplitSize) {
+
+        return new Spliterator<T>() {
+            private int i = start;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> consumer) {
+                if (i < end) {
+                    consumer.accept(read(i++));
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            public Spliterator<T> trySplit() {
+                var middle = (i + end) >>> 1;
+                if (middle - i < minSplitSize) {
+                    return null;
+                }
+                var spliterator = createSpliterator(i, middle, minSplitSize);
+                i = middle;
+                return spliterator;
+            }
+
+            @Override
+            public long estimateSize() {
+                return end - i;
+            }
+
+            @Override
+            public int characteristics() {
+                return NONNULL | ORDERED | SUBSIZED | SIZED;
+            }
+        };
+    }
+
+    // must not run while a view is in use by another thread, see the class comment
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closing();
+        closed = true;
+        for (var i = 0; i < chunkCount; i++) {
+            if (chunks[i] != null) {
+                DirectBuffers.free(chunks[i]);
+                chunks[i] = null;
+            }
+        }
+        closed();
+    }
+}
@@ -0,0 +1,168 @@
+package fr.guihardbastien.boilerplate;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntPredicate;
+
+// Append-only tag bitmap (one bit per slot) with the list of tagged slots in order; arrays are only appended to, so a view holding an old array stays valid
+final class BitmapTagIndex extends TagIndex {
+    private static final int TAG_TASK_SLOTS = 1 << 12; // slots tagged by one leaf task, a multiple of 64
+
+    private long[] words;
+    private int[] positions = new int[8]; // tagged slots, positions[k] is the slot of rank k
+    private int size;
+    private int count;
+
+    BitmapTagIndex(int capacity) {
+        this.words = new long[wordCount(capacity)];
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+        if (wordCount(capacity) > words.length) {
+            words = Arrays.copyOf(words, wordCount(capacity));
+        }
+    }
+
+    @Override
+    void trimToSize() {
+        words = Arrays.copyOf(words, wordCount(size));
+        positions = Arrays.copyOf(positions, Math.max(count, 1)); // appends double its length, it must not be 0
+    }
+
+    @Override
+    void append(boolean tagged) {
+        if (tagged) {
+            words[size >>> 6] |= 1L << size;
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count << 1);
+            }
+            positions[count] = size;
+            count++;
+        }
+        size++;
+    }
+
+    // the tests are split in ranges of whole words, so that each word is written by a single task
+    @Override
+    void appendAll(int count, IntPredicate tagged, ForkJoinPool pool) {
+        var start = size;
+        var end = start + count;
+        int taggedCount;
+        try {
+            var task = new TagTask(words, start, end, tagged);
+            taggedCount = count <= TAG_TASK_SLOTS ? task.compute() : pool.invoke(task); // small batches stay on the caller
+        } catch (RuntimeException | Error e) {
+            clearFrom(start, end);
+            throw e;
+        }
+        index(start, end, taggedCount);
+    }
+
+    // appends count slots, the tag of the i-th one being bit i of batch, whose bits past count must be clear
+    void appendWords(long[] batch, int count) {
+        var start = size;
+        var words = this.words;
+        var shift = start & 63;
+        var taggedCount = 0;
+        for (var b = 0; b < wordCount(count); b++) {
+            var word = batch[b];
+            var w = (start >>> 6) + b;
+            words[w] |= word << shift;
+            if (shift != 0 && word >>> -shift != 0) { // bits spilling into the next word, which exists since they are slots
+                words[w + 1] |= word >>> -shift;
+            }
+            taggedCount += Long.bitCount(word);
+        }
+        index(start, start + count, taggedCount);
+    }
+
+    // records the positions of the taggedCount tagged slots of [start, end), whose bits are set
+    private void index(int start, int end, int taggedCount) {
+        if (this.count + taggedCount > positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(this.count + taggedCount, positions.length << 1));
+        }
+        for (var i = next(start, end); i < end; i = next(i + 1, end)) {
+            positions[this.count++] = i;
+        }
+        size = end;
+    }
+
+    private void clearFrom(int start, int end) {
+        if ((start & 63) != 0) {
+            words[start >>> 6] &= (1L << start) - 1;
+        }
+        Arrays.fill(words, wordCount(start), wordCount(end), 0L);
+    }
+
+    @SuppressWarnings("serial") // tasks are never serialized
+    private static final class TagTask extends RecursiveTask<Integer> {
+        private final long[] words;
+        private final int start;
+        private final int end;
+        private final IntPredicate tagged;
+
+        private TagTask(long[] words, int start, int end, IntPredicate tagged) {
+            this.words = words;
+            this.start = start;
+            this.end = end;
+            this.tagged = tagged;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (end - start <= TAG_TASK_SLOTS) {
+                var count = 0;
+                var word = 0L;
+                for (var i = start; i < end; i++) {
+                    if (tagged.test(i)) {
+                        word |= 1L << i;
+                        count++;
+                    }
+                    if ((i & 63) == 63 || i == end - 1) {
+                        words[i >>> 6] |= word;
+                        word = 0L;
+                    }
+                }
+                return count;
+            }
+            var middle = ((start + end) >>> 1) & ~63;
+            var left = new TagTask(words, start, middle, tagged);
+            left.fork();
+            int right;
+            try {
+                right = new TagTask(words, middle, end, tagged).compute();
+            } catch (RuntimeException | Error e) {
+                left.quietlyJoin(); // no task may still be writing words when the failure reaches appendAll
+                throw e;
+            }
+            return left.join() + right;
+        }
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    int count() {
+        return count;
+    }
+
+    @Override
+    boolean isTagged(int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    @Override
+    int next(int from, int end) {
+        return nextSet(words, from, end);
+    }
+
+    @Override
+    int select(int k) {
+        return positions[k];
+    }
+}
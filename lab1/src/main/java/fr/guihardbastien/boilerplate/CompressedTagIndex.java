@@ -0,0 +1,522 @@
+package fr.guihardbastien.boilerplate;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntPredicate;
+
+// Roaring-style tag index: slots are grouped in containers of 64K, and a container holding tagged slots keeps them
+// as a sorted array, a bitmap or a list of runs, whichever is smallest once the container is full.
+// Containers without tagged slots take no memory, so the index follows the number of tagged slots for sparse tags
+// and the number of untagged ones for dense tags, and a tagged scan jumps from one tagged slot to the next.
+final class CompressedTagIndex extends TagIndex {
+    private static final int CONTAINER_SHIFT = 16;
+    private static final int CONTAINER_SLOTS = 1 << CONTAINER_SHIFT;
+    private static final int CONTAINER_WORDS = CONTAINER_SLOTS >>> 6;
+    private static final int LOW_MASK = CONTAINER_SLOTS - 1;
+    private static final int BITMAP_BYTES = CONTAINER_SLOTS >>> 3;
+    private static final int ARRAY_MAX = BITMAP_BYTES / Character.BYTES; // beyond, an array is bigger than a bitmap
+    private static final int RUN_MAX = BITMAP_BYTES / (2 * Character.BYTES); // beyond, runs are bigger than a bitmap
+
+    private int[] keys = new int[4]; // slot >>> CONTAINER_SHIFT of each container, increasing
+    private Container[] containers = new Container[4];
+    private int[] ranks = new int[4]; // number of tagged slots before each container
+    private int containerCount;
+    private int size;
+    private int count;
+
+    // values are the low 16 bits of the tagged slots of a container, and are appended in increasing order
+    private abstract static class Container {
+        abstract int cardinality();
+
+        // adds a value greater than all the others, returns the container now holding the values
+        abstract Container add(int value);
+
+        abstract boolean contains(int value);
+
+        // smallest value >= from, or -1 if there is none
+        abstract int next(int from);
+
+        // value of rank k, 0 <= k < cardinality
+        abstract int select(int k);
+
+        abstract int bytes();
+
+        abstract void copyTo(long[] words);
+
+        // same values with the smallest encoding
+        Container optimize() {
+            var words = new long[CONTAINER_WORDS];
+            copyTo(words);
+            return of(words);
+        }
+
+        // container holding the set bits of words, or null if there are none
+        static Container of(long[] words) {
+            var cardinality = 0;
+            var runCount = 0;
+            var previous = 0L;
+            for (var word : words) {
+                cardinality += Long.bitCount(word);
+                runCount += Long.bitCount(word & ~((word << 1) | (previous >>> 63))); // bits starting a run
+                previous = word;
+            }
+            if (cardinality == 0) {
+                return null;
+            }
+            if (runCount <= RUN_MAX && runCount * 2 <= cardinality) {
+                var runs = new char[runCount * 2];
+                var r = 0;
+                for (var value = TagIndex.nextSet(words, 0, CONTAINER_SLOTS); value != CONTAINER_SLOTS; ) {
+                    var end = TagIndex.nextClear(words, value, CONTAINER_SLOTS);
+                    runs[r++] = (char) value;
+                    runs[r++] = (char) (end - 1 - value);
+                    value = TagIndex.nextSet(words, end, CONTAINER_SLOTS);
+                }
+                return new RunContainer(runs, runCount, cardinality);
+            }
+            if (cardinality <= ARRAY_MAX) {
+                var values = new char[cardinality];
+                var v = 0;
+                for (var w = 0; w < words.length; w++) {
+                    for (var word = words[w]; word != 0; word &= word - 1) {
+                        values[v++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                    }
+                }
+                return new ArrayContainer(values, cardinality);
+            }
+            return new BitmapContainer(words, cardinality);
+        }
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int cardinality;
+
+        private ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container add(int value) {
+            if (cardinality == ARRAY_MAX) { // runs if the values are mostly contiguous, so dense tags never need a bitmap
+                var words = new long[CONTAINER_WORDS];
+                copyTo(words);
+                var container = of(words);
+                return (container instanceof RunContainer ? container : new BitmapContainer(words, cardinality)).add(value);
+            }
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(Math.max(4, cardinality << 1), ARRAY_MAX));
+            }
+            values[cardinality++] = (char) value;
+            return this;
+        }
+
+        @Override
+        boolean contains(int value) {
+            return Arrays.binarySearch(values, 0, cardinality, (char) value) >= 0;
+        }
+
+        @Override
+        int next(int from) {
+            var index = Arrays.binarySearch(values, 0, cardinality, (char) from);
+            index = index >= 0 ? index : -index - 1;
+            return index == cardinality ? -1 : values[index];
+        }
+
+        @Override
+        int select(int k) {
+            return values[k];
+        }
+
+        @Override
+        int bytes() {
+            return values.length * Character.BYTES;
+        }
+
+        @Override
+        void copyTo(long[] words) {
+            for (var i = 0; i < cardinality; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private int cardinality;
+
+        private BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container add(int value) {
+            words[value >>> 6] |= 1L << value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        boolean contains(int value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int next(int from) {
+            var next = TagIndex.nextSet(words, from, CONTAINER_SLOTS);
+            return next == CONTAINER_SLOTS ? -1 : next;
+        }
+
+        @Override
+        int select(int k) {
+            return TagIndex.selectSet(words, 0, k);
+        }
+
+        @Override
+        int bytes() {
+            return BITMAP_BYTES;
+        }
+
+        @Override
+        void copyTo(long[] words) {
+            System.arraycopy(this.words, 0, words, 0, CONTAINER_WORDS);
+        }
+    }
+
+    private static final class RunContainer extends Container {
+        private char[] runs; // start and length - 1 of each run, in increasing order
+        private int runCount;
+        private int cardinality;
+
+        private RunContainer(char[] runs, int runCount, int cardinality) {
+            this.runs = runs;
+            this.runCount = runCount;
+            this.cardinality = cardinality;
+        }
+
+        private int start(int run) {
+            return runs[run << 1];
+        }
+
+        private int end(int run) { // excluded
+            return runs[run << 1] + runs[(run << 1) + 1] + 1;
+        }
+
+        // index of the last run starting at or before value, -1 if there is none
+        private int runOf(int value) {
+            var low = 0;
+            var high = runCount - 1;
+            while (low <= high) {
+                var middle = (low + high) >>> 1;
+                if (start(middle) <= value) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return high;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container add(int value) {
+            if (runCount != 0 && end(runCount - 1) == value) {
+                runs[((runCount - 1) << 1) + 1]++;
+                cardinality++;
+                return this;
+            }
+            if (runCount == RUN_MAX) {
+                var words = new long[CONTAINER_WORDS];
+                copyTo(words);
+                return new BitmapContainer(words, cardinality).add(value);
+            }
+            if (runCount << 1 == runs.length) {
+                runs = Arrays.copyOf(runs, Math.max(4, runs.length << 1));
+            }
+            runs[runCount << 1] = (char) value;
+            runs[(runCount << 1) + 1] = 0;
+            runCount++;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        boolean contains(int value) {
+            var run = runOf(value);
+            return run != -1 && value < end(run);
+        }
+
+        @Override
+        int next(int from) {
+            var run = runOf(from);
+            if (run != -1 && from < end(run)) {
+                return from;
+            }
+            return run + 1 == runCount ? -1 : start(run + 1);
+        }
+
+        @Override
+        int select(int k) {
+            var run = 0;
+            for (var length = end(0) - start(0); k >= length; length = end(run) - start(run)) {
+                k -= length;
+                run++;
+            }
+            return start(run) + k;
+        }
+
+        @Override
+        int bytes() {
+            return runs.length * Character.BYTES;
+        }
+
+        @Override
+        void copyTo(long[] words) {
+            for (var run = 0; run < runCount; run++) {
+                var start = start(run);
+                var end = end(run);
+                var firstWord = start >>> 6;
+                var lastWord = (end - 1) >>> 6;
+                if (firstWord == lastWord) {
+                    words[firstWord] |= (-1L << start) & (-1L >>> -end);
+                } else {
+                    words[firstWord] |= -1L << start;
+                    Arrays.fill(words, firstWord + 1, lastWord, -1L);
+                    words[lastWord] |= -1L >>> -end;
+                }
+            }
+        }
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+        // containers are allocated as slots get tagged
+    }
+
+    @Override
+    void trimToSize() {
+        var length = Math.max(containerCount, 1); // appends double the length of the directory, it must not be 0
+        keys = Arrays.copyOf(keys, length);
+        containers = Arrays.copyOf(containers, length);
+        ranks = Arrays.copyOf(ranks, length);
+        if (containerCount != 0) {
+            containers[containerCount - 1] = containers[containerCount - 1].optimize();
+        }
+    }
+
+    // index of the first container whose key is >= key
+    private int containerIndex(int key) {
+        var low = 0;
+        var high = containerCount - 1;
+        while (low <= high) {
+            var middle = (low + high) >>> 1;
+            if (keys[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    // the previous container is full, it gets its final encoding
+    private void openContainer(int key, Container container) {
+        if (containerCount != 0) {
+            containers[containerCount - 1] = containers[containerCount - 1].optimize();
+        }
+        if (containerCount == keys.length) {
+            keys = Arrays.copyOf(keys, containerCount << 1);
+            containers = Arrays.copyOf(containers, containerCount << 1);
+            ranks = Arrays.copyOf(ranks, containerCount << 1);
+        }
+        keys[containerCount] = key;
+        containers[containerCount] = container;
+        ranks[containerCount] = count;
+        containerCount++;
+    }
+
+    private boolean isOpen(int key) {
+        return containerCount != 0 && keys[containerCount - 1] == key;
+    }
+
+    @Override
+    void append(boolean tagged) {
+        if (tagged) {
+            var key = size >>> CONTAINER_SHIFT;
+            if (!isOpen(key)) {
+                openContainer(key, new ArrayContainer(new char[4], 0));
+            }
+            containers[containerCount - 1] = containers[containerCount - 1].add(size & LOW_MASK);
+            count++;
+        }
+        size++;
+    }
+
+    // each task builds the containers of a range of keys apart from the index, which only changes once all succeeded
+    @Override
+    void appendAll(int count, IntPredicate tagged, ForkJoinPool pool) {
+        var start = size;
+        var end = start + count;
+        if (count == 0) {
+            return;
+        }
+        var firstKey = start >>> CONTAINER_SHIFT;
+        var results = new Container[((end - 1) >>> CONTAINER_SHIFT) - firstKey + 1];
+        var task = new ContainerTask(results, firstKey, 0, results.length, start, end, tagged);
+        if (count <= CONTAINER_SLOTS) { // small batches stay on the caller
+            task.compute();
+        } else {
+            pool.invoke(task);
+        }
+        for (var k = 0; k < results.length; k++) {
+            var container = results[k];
+            if (container == null) {
+                continue;
+            }
+            var key = firstKey + k;
+            if (isOpen(key)) {
+                var open = containers[containerCount - 1];
+                for (var value = container.next(0); value != -1; value = container.next(value + 1)) {
+                    open = open.add(value);
+                }
+                containers[containerCount - 1] = open;
+            } else {
+                openContainer(key, container);
+            }
+            this.count += container.cardinality();
+        }
+        size = end;
+    }
+
+    @SuppressWarnings("serial") // tasks are never serialized
+    private static final class ContainerTask extends RecursiveAction {
+        private final Container[] results;
+        private final int firstKey;
+        private final int from;
+        private final int to;
+        private final int start;
+        private final int end;
+        private final IntPredicate tagged;
+
+        // builds results[from, to), results[k] covering the slots of key firstKey + k within [start, end)
+        private ContainerTask(Container[] results, int firstKey, int from, int to, int start, int end, IntPredicate tagged) {
+            this.results = results;
+            this.firstKey = firstKey;
+            this.from = from;
+            this.to = to;
+            this.start = start;
+            this.end = end;
+            this.tagged = tagged;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1 || end - start <= CONTAINER_SLOTS) {
+                for (var k = from; k < to; k++) {
+                    results[k] = container(firstKey + k);
+                }
+                return;
+            }
+            var middle = (from + to) >>> 1;
+            var left = new ContainerTask(results, firstKey, from, middle, start, end, tagged);
+            left.fork();
+            try {
+                new ContainerTask(results, firstKey, middle, to, start, end, tagged).compute();
+            } catch (RuntimeException | Error e) {
+                left.quietlyJoin(); // no task may still be testing slots when the failure reaches appendAll
+                throw e;
+            }
+            left.join();
+        }
+
+        private Container container(int key) {
+            var base = key << CONTAINER_SHIFT;
+            var from = Math.max(start, base);
+            var to = (int) Math.min(end, (long) base + CONTAINER_SLOTS);
+            var words = new long[CONTAINER_WORDS];
+            for (var i = from; i < to; i++) {
+                if (tagged.test(i)) {
+                    words[(i - base) >>> 6] |= 1L << i;
+                }
+            }
+            return Container.of(words);
+        }
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    int count() {
+        return count;
+    }
+
+    @Override
+    boolean isTagged(int index) {
+        var key = index >>> CONTAINER_SHIFT;
+        var c = containerIndex(key);
+        return c < containerCount && keys[c] == key && containers[c].contains(index & LOW_MASK);
+    }
+
+    // one lookup per tagged slot, whatever the number of untagged slots in between
+    @Override
+    int next(int from, int end) {
+        if (from >= end) {
+            return end;
+        }
+        for (var c = containerIndex(from >>> CONTAINER_SHIFT); c < containerCount; c++) {
+            var base = keys[c] << CONTAINER_SHIFT;
+            if (base >= end) {
+                return end;
+            }
+            var value = containers[c].next(from > base ? from - base : 0);
+            if (value != -1) {
+                return Math.min(base + value, end);
+            }
+        }
+        return end;
+    }
+
+    @Override
+    int select(int k) {
+        var low = 0;
+        var high = containerCount - 1;
+        while (low < high) { // last container whose rank is <= k
+            var middle = (low + high + 1) >>> 1;
+            if (ranks[middle] <= k) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return (keys[low] << CONTAINER_SHIFT) + containers[low].select(k - ranks[low]);
+    }
+
+    // memory held by the containers, without the directory
+    long containerBytes() {
+        var bytes = 0L;
+        for (var c = 0; c < containerCount; c++) {
+            bytes += containers[c].bytes();
+        }
+        return bytes;
+    }
+}
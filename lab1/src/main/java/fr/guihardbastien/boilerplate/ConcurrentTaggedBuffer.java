@@ -0,0 +1,360 @@
+package fr.guihardbastien.boilerplate;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntToLongFunction;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// TaggedBuffer that many threads can add to at once, without locks.
+// A producer reserves its slot with a compare-and-set on the tail, then publishes the element with release semantics.
+// Storage is a directory of buckets doubling in size, allocated on demand and never copied, so growing blocks nobody
+// but the producers needing the new bucket. One of them allocates it before any slot in it is reserved, so a failed
+// allocation leaves no hole in the buffer; the others wait for it instead of allocating copies of a bucket that may
+// be gigabytes large.
+// Readers work on a Snapshot of the published prefix, the slots before the first one still being written when
+// they start; the buckets are never reallocated, so a snapshot stays valid while producers keep adding.
+public class ConcurrentTaggedBuffer<T> {
+    private static final int FIRST_BUCKET_SHIFT = 10;
+    private static final int FIRST_BUCKET_SIZE = 1 << FIRST_BUCKET_SHIFT;
+    private static final int BUCKET_COUNT = 31 - FIRST_BUCKET_SHIFT;
+    private static final int MAX_SIZE = Integer.MAX_VALUE - FIRST_BUCKET_SIZE + 1;
+    private static final int ALLOCATION_SPINS = 1 << 10; // spins waiting for a bucket before yielding
+
+    private static final VarHandle TAIL;
+    private static final VarHandle PUBLISHED;
+    private static final VarHandle ELEMENTS = MethodHandles.arrayElementVarHandle(Object[].class);
+    private static final VarHandle TAGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            TAIL = lookup.findVarHandle(ConcurrentTaggedBuffer.class, "tail", int.class);
+            PUBLISHED = lookup.findVarHandle(ConcurrentTaggedBuffer.class, "published", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final class Bucket {
+        private final Object[] elements;
+        private final long[] tags;
+
+        private Bucket(int size) {
+            this.elements = new Object[size];
+            this.tags = new long[size >>> 6];
+        }
+    }
+
+    private static final Bucket ALLOCATING = new Bucket(0); // in the directory while a producer allocates the bucket
+
+    private final Predicate<? super T> predicate;
+    private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<>(BUCKET_COUNT);
+    private final LongAdder eltSize = new LongAdder();
+    private final LongAdder filteredEltSize = new LongAdder();
+    private volatile int tail; // next slot to reserve
+    private volatile int published; // every slot before it holds its element
+
+    public ConcurrentTaggedBuffer(Predicate<? super T> fun) {
+        Objects.requireNonNull(fun);
+        this.predicate = fun;
+    }
+
+    // bucket b holds the slots [FIRST_BUCKET_SIZE * (2^b - 1), FIRST_BUCKET_SIZE * (2^(b+1) - 1))
+    private static int bucketIndex(int index) {
+        return 31 - Integer.numberOfLeadingZeros(index + FIRST_BUCKET_SIZE) - FIRST_BUCKET_SHIFT;
+    }
+
+    private static int bucketOffset(int index) {
+        var position = index + FIRST_BUCKET_SIZE;
+        return position - Integer.highestOneBit(position);
+    }
+
+    // the producer winning the directory slot allocates the bucket, the others wait until it is published;
+    // if the allocation fails, the directory slot is cleared so that a later add tries again
+    private void allocateBucket(int bucketIndex) {
+        if (buckets.compareAndSet(bucketIndex, null, ALLOCATING)) {
+            Bucket bucket;
+            try {
+                bucket = new Bucket(FIRST_BUCKET_SIZE << bucketIndex);
+            } catch (RuntimeException | Error e) {
+                buckets.set(bucketIndex, null);
+                throw e;
+            }
+            buckets.set(bucketIndex, bucket);
+            return;
+        }
+        for (var spins = 0; buckets.get(bucketIndex) == ALLOCATING; spins++) {
+            if (spins < ALLOCATION_SPINS) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    // reserves the next slot once its bucket exists, so every reserved slot gets published
+    private int reserve() {
+        for (;;) {
+            var index = tail;
+            if (index >= MAX_SIZE) {
+                throw new IllegalStateException("buffer is full");
+            }
+            var bucketIndex = bucketIndex(index);
+            var bucket = buckets.get(bucketIndex);
+            if (bucket == null || bucket == ALLOCATING) {
+                allocateBucket(bucketIndex);
+            } else if (TAIL.compareAndSet(this, index, index + 1)) {
+                return index;
+            }
+        }
+    }
+
+    public void add(T elt) {
+        Objects.requireNonNull(elt);
+        var tagged = predicate.test(elt); // before reserving, so a failing predicate leaves no hole
+        var index = reserve();
+        var bucket = buckets.get(bucketIndex(index));
+        var offset = bucketOffset(index);
+        if (tagged) {
+            TAGS.getAndBitwiseOr(bucket.tags, offset >>> 6, 1L << offset);
+        }
+        ELEMENTS.setRelease(bucket.elements, offset, elt);
+        eltSize.increment();
+        if (tagged) {
+            filteredEltSize.increment();
+        }
+    }
+
+    // number of completed adds, which may run ahead of the published prefix
+    public int size(boolean onlyTagged) {
+        if (onlyTagged) {
+            return filteredEltSize.intValue();
+        } else {
+            return eltSize.intValue();
+        }
+    }
+
+    // length of the published prefix, moving the shared mark past the elements published since the last call
+    private int publishedLength() {
+        var start = published;
+        var end = Math.min(tail, MAX_SIZE);
+        var length = start;
+        while (length < end) {
+            var bucket = buckets.get(bucketIndex(length));
+            if (bucket == null || ELEMENTS.getAcquire(bucket.elements, bucketOffset(length)) == null) {
+                break;
+            }
+            length++;
+        }
+        for (var current = start; current < length; current = published) {
+            if (PUBLISHED.compareAndSet(this, current, length)) {
+                break;
+            }
+        }
+        return length;
+    }
+
+    // only valid for slots of the published prefix
+    @SuppressWarnings("unchecked")
+    private T element(int index) {
+        return (T) buckets.get(bucketIndex(index)).elements[bucketOffset(index)];
+    }
+
+    // tag words read through tagWord, for the scans of TagIndex
+    private final IntToLongFunction tagWords = this::tagWord;
+
+    private long tagWord(int wordIndex) {
+        var index = wordIndex << 6;
+        return (long) TAGS.getOpaque(buckets.get(bucketIndex(index)).tags, bucketOffset(index) >>> 6);
+    }
+
+    // immutable view of the elements published so far; it copies nothing and later adds do not change it
+    public Snapshot snapshot() {
+        return new Snapshot(publishedLength());
+    }
+
+    public Optional<T> findFirst(boolean onlyTagged) {
+        return snapshot().findFirst(onlyTagged);
+    }
+
+    public void forEach(boolean onlyTagged, Consumer<? super T> fun) {
+        snapshot().forEach(onlyTagged, fun);
+    }
+
+    public Iterator<T> iterator(boolean onlyTagged) {
+        return snapshot().iterator(onlyTagged);
+    }
+
+    public Stream<T> stream(boolean onlyTagged) {
+        return snapshot().stream(onlyTagged);
+    }
+
+    public Stream<T> parallelStream(boolean onlyTagged) {
+        return snapshot().parallelStream(onlyTagged);
+    }
+
+    public final class Snapshot {
+        private final int length;
+        private int taggedCount = -1; // counted on first use, racing threads compute the same value
+
+        private Snapshot(int length) {
+            this.length = length;
+        }
+
+        public int size(boolean onlyTagged) {
+            if (!onlyTagged) {
+                return length;
+            }
+            var taggedCount = this.taggedCount;
+            if (taggedCount == -1) {
+                taggedCount = this.taggedCount = TagIndex.countSet(tagWords, 0, length);
+            }
+            return taggedCount;
+        }
+
+        public Optional<T> findFirst(boolean onlyTagged) {
+            var first = onlyTagged ? TagIndex.nextSet(tagWords, 0, length) : 0;
+            return first == length ? Optional.empty() : Optional.of(element(first));
+        }
+
+        public void forEach(boolean onlyTagged, Consumer<? super T> fun) {
+            Objects.requireNonNull(fun);
+            var length = this.length;
+            if (onlyTagged) {
+                for (var i = TagIndex.nextSet(tagWords, 0, length); i < length; i = TagIndex.nextSet(tagWords, i + 1, length)) {
+                    fun.accept(element(i));
+                }
+            } else {
+                for (var i = 0; i < length; i++) {
+                    fun.accept(element(i));
+                }
+            }
+        }
+
+        public Iterator<T> iterator(boolean onlyTagged) {
+
+            return new Iterator<T>() {
+                private int next = onlyTagged ? TagIndex.nextSet(tagWords, 0, length) : 0; // index of the next element to be returned
+
+                @Override
+                public boolean hasNext() {
+                    return next < length;
+                }
+
+                @Override
+                public T next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    var elt = element(next);
+                    next = onlyTagged ? TagIndex.nextSet(tagWords, next + 1, length) : next + 1;
+                    return elt;
+                }
+            };
+        }
+
+        public Stream<T> stream(boolean onlyTagged) {
+            return stream(onlyTagged, false);
+        }
+
+        public Stream<T> parallelStream(boolean onlyTagged) {
+            return stream(onlyTagged, size(onlyTagged) >= TagIndex.PARALLEL_THRESHOLD);
+        }
+
+        private Stream<T> stream(boolean onlyTagged, boolean parallel) {
+            if (onlyTagged) {
+                return StreamSupport.stream(createSpliteratorOnlyTagged(0, length, size(true)), parallel);
+            } else {
+                return StreamSupport.stream(createSpliterator(0, length), parallel);
+            }
+        }
+    }
+
+    // covers the taggedCount tagged slots of [start, end)
+    private Spliterator<T> createSpliteratorOnlyTagged(int start, int end, int taggedCount) {
+
+        return new Spliterator<T>() {
+
+            private int i = start;
+            private int remaining = taggedCount;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> consumer) {
+                if (remaining == 0) {
+                    return false;
+                }
+                i = TagIndex.nextSet(tagWords, i, end);
+                consumer.accept(element(i));
+                i++;
+                remaining--;
+                return true;
+            }
+
+            @Override
+            public Spliterator<T> trySplit() {
+                var half = remaining >>> 1;
+                if (half == 0) {
+                    return null;
+                }
+                var middle = TagIndex.selectSet(tagWords, i, half); // median tagged element, so both halves get the same work
+                var spliterator = createSpliteratorOnlyTagged(i, middle, half);
+                i = middle;
+                remaining -= half;
+                return spliterator;
+            }
+
+            @Override
+            public long estimateSize() {
+                return remaining;
+            }
+
+            @Override
+            public int characteristics() {
+                return NONNULL | ORDERED | SIZED | SUBSIZED;
+            }
+        };
+    }
+
+    private Spliterator<T> createSpliterator(int start, int end) {
+
+        return new Spliterator<T>() {
+            private int i = start;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> consumer) {
+                if (i < end) {
+                    consumer.accept(element(i++));
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            public Spliterator<T> trySplit() {
+                var middle = (i + end) >>> 1;
+                if (middle == i) {
+                    return null;
+                }
+                var spliterator = createSpliterator(i, middle);
+                i = middle;
+                return spliterator;
+            }
+
+            @Override
+            public long estimateSize() {
+                return end - i;
+            }
+
+            @Override
+            public int characteristics() {
+                return NONNULL | ORDERED | SUBSIZED | SIZED;
+            }
+        };
+    }
+}
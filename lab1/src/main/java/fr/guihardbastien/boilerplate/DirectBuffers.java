@@ -0,0 +1,43 @@
+package fr.guihardbastien.boilerplate;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.ByteBuffer;
+
+// Releases direct and mapped buffers right away instead of waiting for a GC to run their cleaner
+final class DirectBuffers {
+    private static final MethodHandle INVOKE_CLEANER = invokeCleaner();
+
+    private DirectBuffers() {
+        throw new AssertionError();
+    }
+
+    private static MethodHandle invokeCleaner() {
+        try {
+            var unsafeClass = Class.forName("sun.misc.Unsafe");
+            var field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null; // not available, the memory goes back when the buffer is garbage collected
+        }
+    }
+
+    // the buffer must not be a slice or a duplicate, and must never be accessed again
+    static void free(ByteBuffer buffer) {
+        if (INVOKE_CLEANER == null || !buffer.isDirect()) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invokeExact(buffer);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package fr.guihardbastien.boilerplate;
+
+import java.util.function.DoublePredicate;
+
+// Tag predicate of a known form (comparison or range) that a DoubleTaggedBuffer adding values in bulk
+// evaluates 64 values at a time, with a branchless loop writing whole words of the tag bitmap.
+// Every form is a closed range: strict bounds move to the next double, NaN is in no range, like with < and >.
+// Used as a plain DoublePredicate, or combined with and/or/negate, it is tested one value at a time.
+public final class DoubleTagPredicate implements DoublePredicate {
+    private static final DoubleTagPredicate NONE = new DoubleTagPredicate(1, 0);
+
+    private final double low;
+    private final double high;
+
+    private DoubleTagPredicate(double low, double high) {
+        this.low = low;
+        this.high = high;
+    }
+
+    public static DoubleTagPredicate lessThan(double value) {
+        return value == Double.NEGATIVE_INFINITY ? NONE : between(Double.NEGATIVE_INFINITY, Math.nextDown(value));
+    }
+
+    public static DoubleTagPredicate atMost(double value) {
+        return between(Double.NEGATIVE_INFINITY, value);
+    }
+
+    public static DoubleTagPredicate greaterThan(double value) {
+        return value == Double.POSITIVE_INFINITY ? NONE : between(Math.nextUp(value), Double.POSITIVE_INFINITY);
+    }
+
+    public static DoubleTagPredicate atLeast(double value) {
+        return between(value, Double.POSITIVE_INFINITY);
+    }
+
+    // value == other, so 0.0 and -0.0 are equal and NaN equals nothing
+    public static DoubleTagPredicate equalTo(double value) {
+        return between(value, value);
+    }
+
+    // low <= value <= high, nothing if high < low or if a bound is NaN
+    public static DoubleTagPredicate between(double low, double high) {
+        return new DoubleTagPredicate(low, high);
+    }
+
+    @Override
+    public boolean test(double value) {
+        return value >= low && value <= high;
+    }
+
+    // sets bit i - from of words for each tagged values[i] of [from, to); words must be cleared
+    void tag(double[] values, int from, int to, long[] words) {
+        var low = this.low;
+        var high = this.high;
+        for (var start = from; start < to; start += 64) {
+            var end = Math.min(start + 64, to);
+            var word = 0L;
+            for (var i = start; i < end; i++) {
+                var value = values[i];
+                word |= (value >= low & value <= high ? 1L : 0L) << (i - start); // & evaluates both, a conditional move
+            }
+            words[(start - from) >>> 6] = word;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "value in [" + low + ", " + high + "]";
+    }
+}
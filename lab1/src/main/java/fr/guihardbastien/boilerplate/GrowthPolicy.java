@@ -0,0 +1,29 @@
+package fr.guihardbastien.boilerplate;
+
+// Capacity a buffer grows to when it is full
+@FunctionalInterface
+public interface GrowthPolicy {
+
+    // new capacity of a buffer of capacity that needs at least minCapacity slots, must be >= minCapacity
+    int grow(int capacity, int minCapacity);
+
+    static GrowthPolicy doubling() {
+        return factor(2);
+    }
+
+    // multiplies the capacity by factor, which must be > 1
+    static GrowthPolicy factor(double factor) {
+        if (!(factor > 1)) {
+            throw new IllegalArgumentException("factor must be > 1: " + factor);
+        }
+        return (capacity, minCapacity) -> (int) Math.min(Integer.MAX_VALUE, Math.max(minCapacity, (long) (capacity * factor)));
+    }
+
+    // adds increment slots, which keeps at most increment slots empty but copies the buffer every increment adds
+    static GrowthPolicy increment(int increment) {
+        if (increment < 1) {
+            throw new IllegalArgumentException("increment must be positive: " + increment);
+        }
+        return (capacity, minCapacity) -> (int) Math.min(Integer.MAX_VALUE, Math.max(minCapacity, (long) capacity + increment));
+    }
+}
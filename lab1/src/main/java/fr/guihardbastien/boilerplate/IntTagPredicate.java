@@ -0,0 +1,102 @@
+package fr.guihardbastien.boilerplate;
+
+import java.util.function.IntPredicate;
+
+// Tag predicate of a known form (comparison, range, modulo or bitmask) that an IntTaggedBuffer adding values in bulk
+// evaluates 64 values at a time, with a branchless loop per form writing whole words of the tag bitmap.
+// Used as a plain IntPredicate, or combined with and/or/negate, it is tested one value at a time.
+public final class IntTagPredicate implements IntPredicate {
+    private enum Form { RANGE, MODULO, BITMASK }
+
+    private final Form form;
+    private final int first; // low bound, divisor or mask
+    private final int second; // high bound, remainder or masked value
+
+    private IntTagPredicate(Form form, int first, int second) {
+        this.form = form;
+        this.first = first;
+        this.second = second;
+    }
+
+    public static IntTagPredicate lessThan(int value) {
+        return value == Integer.MIN_VALUE ? new IntTagPredicate(Form.RANGE, 0, -1) : between(Integer.MIN_VALUE, value - 1);
+    }
+
+    public static IntTagPredicate greaterThan(int value) {
+        return value == Integer.MAX_VALUE ? new IntTagPredicate(Form.RANGE, 0, -1) : between(value + 1, Integer.MAX_VALUE);
+    }
+
+    public static IntTagPredicate equalTo(int value) {
+        return between(value, value);
+    }
+
+    // low <= value <= high, nothing if high < low
+    public static IntTagPredicate between(int low, int high) {
+        return new IntTagPredicate(Form.RANGE, low, high);
+    }
+
+    // value % divisor == remainder, with the sign rules of %
+    public static IntTagPredicate modulo(int divisor, int remainder) {
+        if (divisor == 0) {
+            throw new IllegalArgumentException("divisor must not be 0");
+        }
+        return new IntTagPredicate(Form.MODULO, divisor, remainder);
+    }
+
+    // (value & mask) == masked
+    public static IntTagPredicate bitmask(int mask, int masked) {
+        return new IntTagPredicate(Form.BITMASK, mask, masked);
+    }
+
+    @Override
+    public boolean test(int value) {
+        return switch (form) {
+            case RANGE -> value >= first && value <= second;
+            case MODULO -> value % first == second;
+            case BITMASK -> (value & first) == second;
+        };
+    }
+
+    // sets bit i - from of words for each tagged values[i] of [from, to); words must be cleared
+    void tag(int[] values, int from, int to, long[] words) {
+        var first = this.first;
+        var second = this.second;
+        for (var start = from; start < to; start += 64) {
+            var end = Math.min(start + 64, to);
+            var word = 0L;
+            switch (form) {
+                case RANGE -> { // in long, value - low and high - value cannot overflow, both are >= 0 in the range
+                    for (var i = start; i < end; i++) {
+                        long value = values[i];
+                        word |= (~((value - first) | (second - value)) >>> 63) << (i - start);
+                    }
+                }
+                case MODULO -> {
+                    for (var i = start; i < end; i++) {
+                        word |= (long) isZero((values[i] % first) ^ second) << (i - start);
+                    }
+                }
+                case BITMASK -> {
+                    for (var i = start; i < end; i++) {
+                        word |= (long) isZero((values[i] & first) ^ second) << (i - start);
+                    }
+                }
+            }
+            words[(start - from) >>> 6] = word;
+        }
+    }
+
+    // 1 if value is 0, 0 otherwise; value | -value has its sign bit set unless value is 0
+    private static int isZero(int value) {
+        return ~(value | -value) >>> 31;
+    }
+
+    @Override
+    public String toString() {
+        return switch (form) {
+            case RANGE -> "value in [" + first + ", " + second + "]";
+            case MODULO -> "value % " + first + " == " + second;
+            case BITMASK -> "(value & " + first + ") == " + second;
+        };
+    }
+}
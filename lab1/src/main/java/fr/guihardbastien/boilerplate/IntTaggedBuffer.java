@@ -0,0 +1,271 @@
+package fr.guihardbastien.boilerplate;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+// TaggedBuffer specialized for int values, stored unboxed
+public class IntTaggedBuffer {
+    private int arraySize = 4;
+    private int eltSize = 0;
+    private int filteredEltSize = 0;
+    private int firstTagged = 0; // slots of the first and last tagged elements, meaningless while filteredEltSize == 0
+    private int lastTagged = 0;
+
+    private final IntPredicate predicate;
+    private int[] elements = new int[arraySize];
+    private final BitmapTagIndex tags = new BitmapTagIndex(arraySize); // tag decisions, recorded once at add time
+
+    public IntTaggedBuffer(IntPredicate fun) {
+        Objects.requireNonNull(fun);
+        this.predicate = fun;
+    }
+
+    private void grow() {
+        if (eltSize == arraySize) {
+            this.arraySize *= 2;
+            this.elements = Arrays.copyOf(this.elements, this.arraySize);
+            this.tags.ensureCapacity(this.arraySize);
+        }
+    }
+
+    public void add(int elt) {
+        grow();
+        elements[eltSize] = elt;
+        var tagged = this.predicate.test(elt);
+        tags.append(tagged);
+        if (tagged) {
+            if (filteredEltSize == 0) {
+                firstTagged = eltSize;
+            }
+            lastTagged = eltSize;
+            filteredEltSize++;
+        }
+        eltSize++;
+    }
+
+    // adds elts[from, to), or none of them if the predicate fails; with a IntTagPredicate, the tags are computed
+    // 64 values at a time, otherwise the predicate is tested on each value
+    public void addAll(int[] elts, int from, int to) {
+        Objects.checkFromToIndex(from, to, elts.length);
+        var count = to - from;
+        if (count > Integer.MAX_VALUE - eltSize) {
+            throw new IllegalStateException("buffer is full");
+        }
+        var batch = new long[TagIndex.wordCount(count)];
+        if (predicate instanceof IntTagPredicate) {
+            ((IntTagPredicate) predicate).tag(elts, from, to, batch);
+        } else {
+            for (var i = from; i < to; i++) {
+                if (predicate.test(elts[i])) {
+                    batch[(i - from) >>> 6] |= 1L << (i - from);
+                }
+            }
+        }
+        if (eltSize + count > arraySize) {
+            this.arraySize = (int) Math.min(Integer.MAX_VALUE, Math.max(2L * arraySize, eltSize + count));
+            this.elements = Arrays.copyOf(this.elements, this.arraySize);
+            this.tags.ensureCapacity(this.arraySize);
+        }
+        System.arraycopy(elts, from, elements, eltSize, count);
+        tags.appendWords(batch, count);
+        if (tags.count() != filteredEltSize) {
+            if (filteredEltSize == 0) {
+                firstTagged = tags.select(0);
+            }
+            lastTagged = tags.select(tags.count() - 1);
+            filteredEltSize = tags.count();
+        }
+        eltSize += count;
+    }
+
+    public int size(boolean onlyTagged) {
+        if (onlyTagged) {
+            return this.filteredEltSize;
+        } else {
+            return this.eltSize;
+        }
+    }
+
+    public OptionalInt findFirst(boolean onlyTagged) {
+        if (onlyTagged) {
+            return filteredEltSize == 0 ? OptionalInt.empty() : OptionalInt.of(elements[firstTagged]);
+        } else {
+            return eltSize == 0 ? OptionalInt.empty() : OptionalInt.of(elements[0]);
+        }
+    }
+
+    public OptionalInt findLast(boolean onlyTagged) {
+        if (onlyTagged) {
+            return filteredEltSize == 0 ? OptionalInt.empty() : OptionalInt.of(elements[lastTagged]);
+        } else {
+            return eltSize == 0 ? OptionalInt.empty() : OptionalInt.of(elements[eltSize - 1]);
+        }
+    }
+
+    // n-th element (from 0) of the buffer or of its tagged elements, empty if there are not that many
+    public OptionalInt findNth(boolean onlyTagged, int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("negative position: " + n);
+        }
+        if (n >= size(onlyTagged)) {
+            return OptionalInt.empty();
+        }
+        return OptionalInt.of(elements[onlyTagged ? tags.select(n) : n]);
+    }
+
+    public void forEach(boolean onlyTagged, IntConsumer fun) {
+        Objects.requireNonNull(fun);
+        var elements = this.elements;
+        var size = this.eltSize;
+        if (onlyTagged) {
+            for (var i = tags.next(0, size); i < size; i = tags.next(i + 1, size)) {
+                fun.accept(elements[i]);
+            }
+        } else {
+            for (var i = 0; i < size; i++) {
+                fun.accept(elements[i]);
+            }
+        }
+    }
+
+    public PrimitiveIterator.OfInt iterator(boolean onlyTagged) {
+
+        return new PrimitiveIterator.OfInt() {
+            private final int[] array = elements;
+            private final int maxSize = eltSize;
+            private final int maxTaggedElements = filteredEltSize;
+            private int startLookup = 0; // index of the next element to be returned by next
+            private int nbReturn;
+
+            @Override
+            public boolean hasNext() {
+                if (onlyTagged) {
+                    return nbReturn < maxTaggedElements;
+                } else {
+                    return nbReturn < maxSize;
+                }
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                var next = onlyTagged ? tags.next(startLookup, maxSize) : startLookup;
+                startLookup = next + 1;
+                nbReturn++;
+                return array[next];
+            }
+        };
+    }
+
+    public IntStream stream(boolean onlyTagged) {
+        return stream(onlyTagged, false, 1);
+    }
+
+    public IntStream parallelStream(boolean onlyTagged) {
+        return parallelStream(onlyTagged, TagIndex.PARALLEL_THRESHOLD);
+    }
+
+    // stays sequential when there are fewer than minSplitSize elements, and never splits below minSplitSize
+    public IntStream parallelStream(boolean onlyTagged, int minSplitSize) {
+        if (minSplitSize < 1) {
+            throw new IllegalArgumentException("minSplitSize must be positive: " + minSplitSize);
+        }
+        return stream(onlyTagged, size(onlyTagged) >= minSplitSize, minSplitSize);
+    }
+
+    private IntStream stream(boolean onlyTagged, boolean parallel, int minSplitSize) {
+        if (onlyTagged) {
+            return StreamSupport.intStream(createSpliteratorOnlyTagged(0, this.eltSize, 0, this.filteredEltSize, this.elements, minSplitSize), parallel);
+        } else {
+            return StreamSupport.intStream(createSpliterator(0, this.eltSize, this.elements, minSplitSize), parallel);
+        }
+    }
+
+    // covers the tagged slots of [start, end), whose ranks are [startRank, endRank)
+    private Spliterator.OfInt createSpliteratorOnlyTagged(int start, int end, int startRank, int endRank, int[] array, int minSplitSize) {
+
+        return new Spliterator.OfInt() {
+
+            private int i = start;
+            private int rank = startRank;
+
+            @Override
+            public boolean tryAdvance(IntConsumer consumer) {
+                if (rank == endRank) {
+                    return false;
+                }
+                i = tags.next(i, end);
+                consumer.accept(array[i]);
+                i++;
+                rank++;
+                return true;
+            }
+
+            @Override
+            public Spliterator.OfInt trySplit() {
+                var middleRank = (rank + endRank) >>> 1;
+                if (middleRank - rank < minSplitSize) {
+                    return null;
+                }
+                var middle = tags.select(middleRank); // median tagged element, so both halves get the same work
+                var spliterator = createSpliteratorOnlyTagged(i, middle, rank, middleRank, array, minSplitSize);
+                i = middle;
+                rank = middleRank;
+                return spliterator;
+            }
+
+            @Override
+            public long estimateSize() {
+                return endRank - rank;
+            }
+
+            @Override
+            public int characteristics() {
+                return NONNULL | ORDERED | SIZED | SUBSIZED;
+            }
+        };
+    }
+
+    private Spliterator.OfInt createSpliterator(int start, int end, int[] array, int minSplitSize) {
+
+        return new Spliterator.OfInt() {
+            private int i = start;
+
+            @Override
+            public boolean tryAdvance(IntConsumer consumer) {
+                if (i < end) {
+                    consumer.accept(array[i++]);
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            public Spliterator.OfInt trySplit() {
+                var middle = (i + end) >>> 1;
+                if (middle - i < minSplitSize) {
+                    return null;
+                }
+                var spliterator = createSpliterator(i, middle, array, minSplitSize);
+                i = middle;
+                return spliterator;
+            }
+
+            @Override
+            public long estimateSize() {
+                return end - i;
+            }
+
+            @Override
+            public int characteristics() {
+                return NONNULL | ORDERED | SUBSIZED | SIZED;
+            }
+        };
+    }
+}
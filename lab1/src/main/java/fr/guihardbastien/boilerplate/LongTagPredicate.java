@@ -0,0 +1,107 @@
+package fr.guihardbastien.boilerplate;
+
+import java.util.function.LongPredicate;
+
+// Tag predicate of a known form (comparison, range, modulo or bitmask) that a LongTaggedBuffer adding values in bulk
+// evaluates 64 values at a time, with a branchless loop per form writing whole words of the tag bitmap.
+// Used as a plain LongPredicate, or combined with and/or/negate, it is tested one value at a time.
+public final class LongTagPredicate implements LongPredicate {
+    private enum Form { RANGE, MODULO, BITMASK }
+
+    private static final LongTagPredicate NONE = new LongTagPredicate(Form.BITMASK, 0, 1); // value & 0 is never 1
+
+    private final Form form;
+    private final long first; // low bound, divisor or mask
+    private final long second; // high bound, remainder or masked value
+
+    private LongTagPredicate(Form form, long first, long second) {
+        this.form = form;
+        this.first = first;
+        this.second = second;
+    }
+
+    public static LongTagPredicate lessThan(long value) {
+        return value == Long.MIN_VALUE ? NONE : between(Long.MIN_VALUE, value - 1);
+    }
+
+    public static LongTagPredicate greaterThan(long value) {
+        return value == Long.MAX_VALUE ? NONE : between(value + 1, Long.MAX_VALUE);
+    }
+
+    public static LongTagPredicate equalTo(long value) {
+        return between(value, value);
+    }
+
+    // low <= value <= high, nothing if high < low
+    public static LongTagPredicate between(long low, long high) {
+        return high < low ? NONE : new LongTagPredicate(Form.RANGE, low, high);
+    }
+
+    // value % divisor == remainder, with the sign rules of %
+    public static LongTagPredicate modulo(long divisor, long remainder) {
+        if (divisor == 0) {
+            throw new IllegalArgumentException("divisor must not be 0");
+        }
+        return new LongTagPredicate(Form.MODULO, divisor, remainder);
+    }
+
+    // (value & mask) == masked
+    public static LongTagPredicate bitmask(long mask, long masked) {
+        return new LongTagPredicate(Form.BITMASK, mask, masked);
+    }
+
+    @Override
+    public boolean test(long value) {
+        return switch (form) {
+            case RANGE -> value >= first && value <= second;
+            case MODULO -> value % first == second;
+            case BITMASK -> (value & first) == second;
+        };
+    }
+
+    // sets bit i - from of words for each tagged values[i] of [from, to); words must be cleared
+    void tag(long[] values, int from, int to, long[] words) {
+        var first = this.first;
+        var second = this.second;
+        var width = second - first; // value is in the range if value - low <= width, both unsigned
+        for (var start = from; start < to; start += 64) {
+            var end = Math.min(start + 64, to);
+            var word = 0L;
+            switch (form) {
+                case RANGE -> {
+                    for (var i = start; i < end; i++) {
+                        var offset = values[i] - first;
+                        // borrow out of the unsigned width - offset, set if offset > width
+                        var borrow = ((~width & offset) | (~(width ^ offset) & (width - offset))) >>> 63;
+                        word |= (borrow ^ 1) << (i - start);
+                    }
+                }
+                case MODULO -> {
+                    for (var i = start; i < end; i++) {
+                        word |= isZero((values[i] % first) ^ second) << (i - start);
+                    }
+                }
+                case BITMASK -> {
+                    for (var i = start; i < end; i++) {
+                        word |= isZero((values[i] & first) ^ second) << (i - start);
+                    }
+                }
+            }
+            words[(start - from) >>> 6] = word;
+        }
+    }
+
+    // 1 if value is 0, 0 otherwise; value | -value has its sign bit set unless value is 0
+    private static long isZero(long value) {
+        return ~(value | -value) >>> 63;
+    }
+
+    @Override
+    public String toString() {
+        return switch (form) {
+            case RANGE -> "value in [" + first + ", " + second + "]";
+            case MODULO -> "value % " + first + " == " + second;
+            case BITMASK -> "(value & " + first + ") == " + second;
+        };
+    }
+}
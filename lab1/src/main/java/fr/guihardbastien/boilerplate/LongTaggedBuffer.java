@@ -0,0 +1,271 @@
+package fr.guihardbastien.boilerplate;
+
+import java.util.*;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+// TaggedBuffer specialized for long values, stored unboxed
+public class LongTaggedBuffer {
+    private int arraySize = 4;
+    private int eltSize = 0;
+    private int filteredEltSize = 0;
+    private int firstTagged = 0; // slots of the first and last tagged elements, meaningless while filteredEltSize == 0
+    private int lastTagged = 0;
+
+    private final LongPredicate predicate;
+    private long[] elements = new long[arraySize];
+    private final BitmapTagIndex tags = new BitmapTagIndex(arraySize); // tag decisions, recorded once at add time
+
+    public LongTaggedBuffer(LongPredicate fun) {
+        Objects.requireNonNull(fun);
+        this.predicate = fun;
+    }
+
+    private void grow() {
+        if (eltSize == arraySize) {
+            this.arraySize *= 2;
+            this.elements = Arrays.copyOf(this.elements, this.arraySize);
+            this.tags.ensureCapacity(this.arraySize);
+        }
+    }
+
+    public void add(long elt) {
+        grow();
+        elements[eltSize] = elt;
+        var tagged = this.predicate.test(elt);
+        tags.append(tagged);
+        if (tagged) {
+            if (filteredEltSize == 0) {
+                firstTagged = eltSize;
+            }
+            lastTagged = eltSize;
+            filteredEltSize++;
+        }
+        eltSize++;
+    }
+
+    // adds elts[from, to), or none of them if the predicate fails; with a LongTagPredicate, the tags are computed
+    // 64 values at a time, otherwise the predicate is tested on each value
+    public void addAll(long[] elts, int from, int to) {
+        Objects.checkFromToIndex(from, to, elts.length);
+        var count = to - from;
+        if (count > Integer.MAX_VALUE - eltSize) {
+            throw new IllegalStateException("buffer is full");
+        }
+        var batch = new long[TagIndex.wordCount(count)];
+        if (predicate instanceof LongTagPredicate) {
+            ((LongTagPredicate) predicate).tag(elts, from, to, batch);
+        } else {
+            for (var i = from; i < to; i++) {
+                if (predicate.test(elts[i])) {
+                    batch[(i - from) >>> 6] |= 1L << (i - from);
+                }
+            }
+        }
+        if (eltSize + count > arraySize) {
+            this.arraySize = (int) Math.min(Integer.MAX_VALUE, Math.max(2L * arraySize, eltSize + count));
+            this.elements = Arrays.copyOf(this.elements, this.arraySize);
+            this.tags.ensureCapacity(this.arraySize);
+        }
+        System.arraycopy(elts, from, elements, eltSize, count);
+        tags.appendWords(batch, count);
+        if (tags.count() != filteredEltSize) {
+            if (filteredEltSize == 0) {
+                firstTagged = tags.select(0);
+            }
+            lastTagged = tags.select(tags.count() - 1);
+            filteredEltSize = tags.count();
+        }
+        eltSize += count;
+    }
+
+    public int size(boolean onlyTagged) {
+        if (onlyTagged) {
+            return this.filteredEltSize;
+        } else {
+            return this.eltSize;
+        }
+    }
+
+    public OptionalLong findFirst(boolean onlyTagged) {
+        if (onlyTagged) {
+            return filteredEltSize == 0 ? OptionalLong.empty() : OptionalLong.of(elements[firstTagged]);
+        } else {
+            return eltSize == 0 ? OptionalLong.empty() : OptionalLong.of(elements[0]);
+        }
+    }
+
+    public OptionalLong findLast(boolean onlyTagged) {
+        if (onlyTagged) {
+            return filteredEltSize == 0 ? OptionalLong.empty() : OptionalLong.of(elements[lastTagged]);
+        } else {
+            return eltSize == 0 ? OptionalLong.empty() : OptionalLong.of(elements[eltSize - 1]);
+        }
+    }
+
+    // n-th element (from 0) of the buffer or of its tagged elements, empty if there are not that many
+    public OptionalLong findNth(boolean onlyTagged, int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("negative position: " + n);
+        }
+        if (n >= size(onlyTagged)) {
+            return OptionalLong.empty();
+        }
+        return OptionalLong.of(elements[onlyTagged ? tags.select(n) : n]);
+    }
+
+    public void forEach(boolean onlyTagged, LongConsumer fun) {
+        Objects.requireNonNull(fun);
+        var elements = this.elements;
+        var size = this.eltSize;
+        if (onlyTagged) {
+            for (var i = tags.next(0, size); i < size; i = tags.next(i + 1, size)) {
+                fun.accept(elements[i]);
+            }
+        } else {
+            for (var i = 0; i < size; i++) {
+                fun.accept(elements[i]);
+            }
+        }
+    }
+
+    public PrimitiveIterator.OfLong iterator(boolean onlyTagged) {
+
+        return new PrimitiveIterator.OfLong() {
+            private final long[] array = elements;
+            private final int maxSize = eltSize;
+            private final int maxTaggedElements = filteredEltSize;
+            private int startLookup = 0; // index of the next element to be returned by next
+            private int nbReturn;
+
+            @Override
+            public boolean hasNext() {
+                if (onlyTagged) {
+                    return nbReturn < maxTaggedElements;
+                } else {
+                    return nbReturn < maxSize;
+                }
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                var next = onlyTagged ? tags.next(startLookup, maxSize) : startLookup;
+                startLookup = next + 1;
+                nbReturn++;
+                return array[next];
+            }
+        };
+    }
+
+    public LongStream stream(boolean onlyTagged) {
+        return stream(onlyTagged, false, 1);
+    }
+
+    public LongStream parallelStream(boolean onlyTagged) {
+        return parallelStream(onlyTagged, TagIndex.PARALLEL_THRESHOLD);
+    }
+
+    // stays sequential when there are fewer than minSplitSize elements, and never splits below minSplitSize
+    public LongStream parallelStream(boolean onlyTagged, int minSplitSize) {
+        if (minSplitSize < 1) {
+            throw new IllegalArgumentException("minSplitSize must be positive: " + minSplitSize);
+        }
+        return stream(onlyTagged, size(onlyTagged) >= minSplitSize, minSplitSize);
+    }
+
+    private LongStream stream(boolean onlyTagged, boolean parallel, int minSplitSize) {
+        if (onlyTagged) {
+            return StreamSupport.longStream(createSpliteratorOnlyTagged(0, this.eltSize, 0, this.filteredEltSize, this.elements, minSplitSize), parallel);
+        } else {
+            return StreamSupport.longStream(createSpliterator(0, this.eltSize, this.elements, minSplitSize), parallel);
+        }
+    }
+
+    // covers the tagged slots of [start, end), whose ranks are [startRank, endRank)
+    private Spliterator.OfLong createSpliteratorOnlyTagged(int start, int end, int startRank, int endRank, long[] array, int minSplitSize) {
+
+        return new Spliterator.OfLong() {
+
+            private int i = start;
+            private int rank = startRank;
+
+            @Override
+            public boolean tryAdvance(LongConsumer consumer) {
+                if (rank == endRank) {
+                    return false;
+                }
+                i = tags.next(i, end);
+                consumer.accept(array[i]);
+                i++;
+                rank++;
+                return true;
+            }
+
+            @Override
+            public Spliterator.OfLong trySplit() {
+                var middleRank = (rank + endRank) >>> 1;
+                if (middleRank - rank < minSplitSize) {
+                    return null;
+                }
+                var middle = tags.select(middleRank); // median tagged element, so both halves get the same work
+                var spliterator = createSpliteratorOnlyTagged(i, middle, rank, middleRank, array, minSplitSize);
+                i = middle;
+                rank = middleRank;
+                return spliterator;
+            }
+
+            @Override
+            public long estimateSize() {
+                return endRank - rank;
+            }
+
+            @Override
+            public int characteristics() {
+                return NONNULL | ORDERED | SIZED | SUBSIZED;
+            }
+        };
+    }
+
+    private Spliterator.OfLong createSpliterator(int start, int end, long[] array, int minSplitSize) {
+
+        return new Spliterator.OfLong() {
+            private int i = start;
+
+            @Override
+            public boolean tryAdvance(LongConsumer consumer) {
+                if (i < end) {
+                    consumer.accept(array[i++]);
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            public Spliterator.OfLong trySplit() {
+                var middle = (i + end) >>> 1;
+                if (middle - i < minSplitSize) {
+                    return null;
+                }
+                var spliterator = createSpliterator(i, middle, array, minSplitSize);
+                i = middle;
+                return spliterator;
+            }
+
+            @Override
+            public long estimateSize() {
+                return end - i;
+            }
+
+            @Override
+            public int characteristics() {
+                return NONNULL | ORDERED | SUBSIZED | SIZED;
+            }
+        };
+    }
+}
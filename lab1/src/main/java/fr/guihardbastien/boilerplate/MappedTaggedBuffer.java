@@ -0,0 +1,122 @@
+package fr.guihardbastien.boilerplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+// TaggedBuffer persisted in a memory-mapped file: a header page holding the element counts, then the chunks.
+// Reopening a file only reads its header, chunks are mapped on first access and their pages load when touched.
+// Elements are written straight into the mapping, but the counts stay in memory until force() or close() writes them
+// to the header, after forcing the chunks: a file reopened after a crash only claims the elements of the last force.
+public class MappedTaggedBuffer<T> extends AbstractChunkedTaggedBuffer<T> {
+    private static final int MAGIC = 0x54414742; // "TAGB"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4096; // one page, so chunks stay page aligned
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int RECORD_SIZE_OFFSET = 8;
+    private static final int ELT_SIZE_OFFSET = 12;
+    private static final int FILTERED_ELT_SIZE_OFFSET = 16;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final ArrayList<MappedByteBuffer> mappedChunks = new ArrayList<>();
+
+    // opens the file at path, creating it if it does not exist;
+    // the predicate only tags new elements, the tags of existing ones are read from the file
+    public MappedTaggedBuffer(Path path, RecordCodec<T> codec, Predicate<? super T> fun) throws IOException {
+        super(codec, fun);
+        Objects.requireNonNull(path);
+        this.channel = FileChannel.open(path, CREATE, READ, WRITE);
+        try {
+            var fileSize = channel.size();
+            this.header = channel.map(READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (fileSize == 0) {
+                header.putInt(MAGIC_OFFSET, MAGIC);
+                header.putInt(VERSION_OFFSET, VERSION);
+                header.putInt(RECORD_SIZE_OFFSET, codec.recordSize());
+            } else {
+                restore(path, fileSize, codec.recordSize());
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void restore(Path path, long fileSize, int recordSize) throws IOException {
+        if (header.getInt(MAGIC_OFFSET) != MAGIC || header.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IOException("not a tagged buffer file: " + path);
+        }
+        if (header.getInt(RECORD_SIZE_OFFSET) != recordSize) {
+            throw new IllegalArgumentException("file " + path + " holds records of " + header.getInt(RECORD_SIZE_OFFSET)
+                    + " bytes, the codec uses " + recordSize);
+        }
+        var eltSize = header.getInt(ELT_SIZE_OFFSET);
+        var chunkCount = (eltSize + CHUNK_SLOTS - 1) >>> CHUNK_SHIFT;
+        if (fileSize < HEADER_BYTES + (long) chunkCount * chunkBytes()) {
+            throw new IOException("truncated tagged buffer file: " + path);
+        }
+        restore(eltSize, header.getInt(FILTERED_ELT_SIZE_OFFSET));
+    }
+
+    @Override
+    synchronized ByteBuffer loadChunk(int chunkIndex) {
+        try {
+            // mapping past the end of the file extends it with zeros
+            var chunk = channel.map(READ_WRITE, HEADER_BYTES + (long) chunkIndex * chunkBytes(), chunkBytes());
+            chunk.order(ByteOrder.LITTLE_ENDIAN);
+            mappedChunks.add(chunk);
+            return chunk;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized void force() {
+        if (!channel.isOpen()) {
+            throw new IllegalStateException("buffer is closed");
+        }
+        sync();
+    }
+
+    // forces the records and tags before the header holds counts covering them, so the counts on disk never cover
+    // unwritten elements: the OS may write a mapped page back at any time, it must not see the new counts earlier
+    private void sync() {
+        for (var chunk : mappedChunks) {
+            chunk.force();
+        }
+        header.putInt(ELT_SIZE_OFFSET, size(false));
+        header.putInt(FILTERED_ELT_SIZE_OFFSET, size(true));
+        header.force();
+    }
+
+    @Override
+    synchronized void closing() {
+        sync();
+    }
+
+    @Override
+    synchronized void closed() {
+        mappedChunks.clear();
+        DirectBuffers.free(header);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
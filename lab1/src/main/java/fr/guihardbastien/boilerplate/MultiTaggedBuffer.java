@@ -0,0 +1,275 @@
+package fr.guihardbastien.boilerplate;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// TaggedBuffer with up to 64 predicates over a single elements array: tag i of an element is the result of
+// predicate i, kept in its own bitmap. A tag mask is a long whose bit i stands for tag i.
+// Combinations of tags are Selections, computed word by word over the bitmaps without testing any element again.
+public class MultiTaggedBuffer<T> {
+    private int arraySize = 4;
+    private int eltSize = 0;
+
+    private final Predicate<? super T>[] predicates;
+    private final int[] tagSizes; // number of elements carrying each tag
+    private T[] elements;
+    private final long[][] tags; // one bitmap per tag, bits are only set, and only at slots < eltSize
+
+    @SuppressWarnings("unchecked")
+    public MultiTaggedBuffer(List<? extends Predicate<? super T>> funs) {
+        Objects.requireNonNull(funs);
+        if (funs.isEmpty() || funs.size() > 64) {
+            throw new IllegalArgumentException("between 1 and 64 predicates expected: " + funs.size());
+        }
+        this.predicates = funs.toArray(Predicate[]::new);
+        for (var fun : predicates) {
+            Objects.requireNonNull(fun);
+        }
+        this.elements = (T[]) new Object[arraySize];
+        this.tagSizes = new int[predicates.length];
+        this.tags = new long[predicates.length][TagIndex.wordCount(arraySize)];
+    }
+
+    private void grow() {
+        if (eltSize == arraySize) {
+            this.arraySize *= 2;
+            this.elements = Arrays.copyOf(this.elements, this.arraySize);
+            for (var k = 0; k < tags.length; k++) {
+                tags[k] = Arrays.copyOf(tags[k], TagIndex.wordCount(this.arraySize));
+            }
+        }
+    }
+
+    public void add(T elt) {
+        Objects.requireNonNull(elt);
+        var tagMask = 0L;
+        for (var k = 0; k < predicates.length; k++) { // all predicates first, so a failing one leaves no trace
+            if (predicates[k].test(elt)) {
+                tagMask |= 1L << k;
+            }
+        }
+        grow();
+        elements[eltSize] = elt;
+        for (var mask = tagMask; mask != 0; mask &= mask - 1) {
+            var k = Long.numberOfTrailingZeros(mask);
+            tags[k][eltSize >>> 6] |= 1L << eltSize;
+            tagSizes[k]++;
+        }
+        eltSize++;
+    }
+
+    public int tagCount() {
+        return predicates.length;
+    }
+
+    public int size() {
+        return eltSize;
+    }
+
+    public int size(int tagId) {
+        Objects.checkIndex(tagId, predicates.length);
+        return tagSizes[tagId];
+    }
+
+    // elements carrying tag tagId
+    public Selection tag(int tagId) {
+        Objects.checkIndex(tagId, predicates.length);
+        return new Selection(elements, tags[tagId], eltSize, tagSizes[tagId]);
+    }
+
+    // elements carrying every tag of tagMask, all the elements if tagMask is 0
+    public Selection allOf(long tagMask) {
+        checkMask(tagMask);
+        if (tagMask == 0) {
+            var words = new long[TagIndex.wordCount(eltSize)];
+            Arrays.fill(words, -1L);
+            return new Selection(elements, words, eltSize, eltSize);
+        }
+        var selection = tag(Long.numberOfTrailingZeros(tagMask));
+        for (var mask = tagMask & (tagMask - 1); mask != 0; mask &= mask - 1) {
+            selection = selection.and(tag(Long.numberOfTrailingZeros(mask)));
+        }
+        return selection;
+    }
+
+    // elements carrying at least one tag of tagMask, none if tagMask is 0
+    public Selection anyOf(long tagMask) {
+        checkMask(tagMask);
+        if (tagMask == 0) {
+            return new Selection(elements, new long[TagIndex.wordCount(eltSize)], eltSize, 0);
+        }
+        var selection = tag(Long.numberOfTrailingZeros(tagMask));
+        for (var mask = tagMask & (tagMask - 1); mask != 0; mask &= mask - 1) {
+            selection = selection.or(tag(Long.numberOfTrailingZeros(mask)));
+        }
+        return selection;
+    }
+
+    private void checkMask(long tagMask) {
+        if (predicates.length < 64 && (tagMask >>> predicates.length) != 0) {
+            throw new IllegalArgumentException("unknown tags in mask: " + Long.toHexString(tagMask));
+        }
+    }
+
+    public void forEach(long tagMask, Consumer<? super T> fun) {
+        allOf(tagMask).forEach(fun);
+    }
+
+    public Iterator<T> iterator(long tagMask) {
+        return allOf(tagMask).iterator();
+    }
+
+    public Stream<T> stream(long tagMask) {
+        return allOf(tagMask).stream();
+    }
+
+    public Stream<T> parallelStream(long tagMask) {
+        return allOf(tagMask).parallelStream();
+    }
+
+    // immutable set of slots of the buffer, as it was when the selection was created
+    public final class Selection {
+        private final T[] array;
+        private final long[] words; // only the bits of the slots < length are meaningful
+        private final int length;
+        private final int size;
+
+        private Selection(T[] array, long[] words, int length, int size) {
+            this.array = array;
+            this.words = words;
+            this.length = length;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        // elements in both selections; like or and andNot, only covers the slots of the older of the two
+        public Selection and(Selection selection) {
+            Objects.requireNonNull(selection);
+            var length = Math.min(this.length, selection.length);
+            var words = new long[TagIndex.wordCount(length)];
+            for (var w = 0; w < words.length; w++) {
+                words[w] = this.words[w] & selection.words[w];
+            }
+            return combined(words, length);
+        }
+
+        public Selection or(Selection selection) {
+            Objects.requireNonNull(selection);
+            var length = Math.min(this.length, selection.length);
+            var words = new long[TagIndex.wordCount(length)];
+            for (var w = 0; w < words.length; w++) {
+                words[w] = this.words[w] | selection.words[w];
+            }
+            return combined(words, length);
+        }
+
+        // elements of this selection that are not in selection
+        public Selection andNot(Selection selection) {
+            Objects.requireNonNull(selection);
+            var length = Math.min(this.length, selection.length);
+            var words = new long[TagIndex.wordCount(length)];
+            for (var w = 0; w < words.length; w++) {
+                words[w] = this.words[w] & ~selection.words[w];
+            }
+            return combined(words, length);
+        }
+
+        private Selection combined(long[] words, int length) {
+            if (words.length == 0) {
+                return new Selection(array, words, 0, 0);
+            }
+            words[words.length - 1] &= -1L >>> -length; // drops the bits of slots added after the selections
+            return new Selection(array, words, length, TagIndex.countSet(words, 0, length));
+        }
+
+        public void forEach(Consumer<? super T> fun) {
+            Objects.requireNonNull(fun);
+            var array = this.array;
+            var length = this.length;
+            for (var i = TagIndex.nextSet(words, 0, length); i < length; i = TagIndex.nextSet(words, i + 1, length)) {
+                fun.accept(array[i]);
+            }
+        }
+
+        public Iterator<T> iterator() {
+
+            return new Iterator<T>() {
+                private int next = TagIndex.nextSet(words, 0, length); // index of the next element to be returned
+
+                @Override
+                public boolean hasNext() {
+                    return next < length;
+                }
+
+                @Override
+                public T next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    var elt = array[next];
+                    next = TagIndex.nextSet(words, next + 1, length);
+                    return elt;
+                }
+            };
+        }
+
+        public Stream<T> stream() {
+            return StreamSupport.stream(createSpliterator(array, words, 0, length, size), false);
+        }
+
+        public Stream<T> parallelStream() {
+            return StreamSupport.stream(createSpliterator(array, words, 0, length, size), size >= TagIndex.PARALLEL_THRESHOLD);
+        }
+    }
+
+    // covers the count set slots of [start, end)
+    private static <T> Spliterator<T> createSpliterator(T[] array, long[] words, int start, int end, int count) {
+
+        return new Spliterator<T>() {
+
+            private int i = start;
+            private int remaining = count;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> consumer) {
+                if (remaining == 0) {
+                    return false;
+                }
+                i = TagIndex.nextSet(words, i, end);
+                consumer.accept(array[i]);
+                i++;
+                remaining--;
+                return true;
+            }
+
+            @Override
+            public Spliterator<T> trySplit() {
+                var half = remaining >>> 1;
+                if (half == 0) {
+                    return null;
+                }
+                var middle = TagIndex.selectSet(words, i, half); // median selected element, so both halves get the same work
+                var spliterator = createSpliterator(array, words, i, middle, half);
+                i = middle;
+                remaining -= half;
+                return spliterator;
+            }
+
+            @Override
+            public long estimateSize() {
+                return remaining;
+            }
+
+            @Override
+            public int characteristics() {
+                return NONNULL | ORDERED | SIZED | SUBSIZED;
+            }
+        };
+    }
+}
@@ -0,0 +1,19 @@
+package fr.guihardbastien.boilerplate;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.Predicate;
+
+// TaggedBuffer keeping its elements in direct memory as fixed-width records written by a RecordCodec;
+// close() frees that memory immediately, so it must not run while a view is in use
+public class OffHeapTaggedBuffer<T> extends AbstractChunkedTaggedBuffer<T> {
+
+    public OffHeapTaggedBuffer(RecordCodec<T> codec, Predicate<? super T> fun) {
+        super(codec, fun);
+    }
+
+    @Override
+    ByteBuffer loadChunk(int chunkIndex) {
+        return ByteBuffer.allocateDirect(chunkBytes()).order(ByteOrder.nativeOrder());
+    }
+}
@@ -0,0 +1,14 @@
+package fr.guihardbastien.boilerplate;
+
+import java.nio.ByteBuffer;
+
+// Fixed-width binary layout of the elements of an off-heap buffer.
+// Implementations must only use absolute get/put at [offset, offset + recordSize()), so that several
+// threads can read the same ByteBuffer at once.
+public interface RecordCodec<T> {
+    int recordSize();
+
+    void write(ByteBuffer buffer, int offset, T value);
+
+    T read(ByteBuffer buffer, int offset);
+}
@@ -0,0 +1,325 @@
+package fr.guihardbastien.boilerplate;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// TaggedBuffer for very large loads: elements and tags live in fixed-size segments linked from a directory,
+// so growing allocates one more segment and never copies elements. Only the directory, one reference per
+// segment, is reallocated. Views are snapshots: the segments never move and their used slots never change.
+public class SegmentedTaggedBuffer<T> {
+    private static final int DEFAULT_SEGMENT_SIZE = 1 << 16;
+
+    private final Predicate<? super T> predicate;
+    private final int segmentShift;
+    private final int segmentMask;
+    private Object[][] segments = new Object[4][];
+    private long[][] segmentTags = new long[4][]; // one bit per slot of each segment
+    private int[] segmentRanks = new int[4]; // number of tagged elements before each segment
+    private int eltSize;
+    private int filteredEltSize;
+
+    public SegmentedTaggedBuffer(Predicate<? super T> fun) {
+        this(DEFAULT_SEGMENT_SIZE, fun);
+    }
+
+    // segmentSize must be a power of 2, at least 64
+    public SegmentedTaggedBuffer(int segmentSize, Predicate<? super T> fun) {
+        if (segmentSize < 64 || Integer.bitCount(segmentSize) != 1) {
+            throw new IllegalArgumentException("segment size must be a power of 2 >= 64: " + segmentSize);
+        }
+        Objects.requireNonNull(fun);
+        this.predicate = fun;
+        this.segmentShift = Integer.numberOfTrailingZeros(segmentSize);
+        this.segmentMask = segmentSize - 1;
+    }
+
+    public void add(T elt) {
+        Objects.requireNonNull(elt);
+        var tagged = predicate.test(elt);
+        if (eltSize == Integer.MAX_VALUE) {
+            throw new IllegalStateException("buffer is full");
+        }
+        var segment = eltSize >>> segmentShift;
+        var offset = eltSize & segmentMask;
+        if (offset == 0) {
+            addSegment(segment);
+        }
+        segments[segment][offset] = elt;
+        if (tagged) {
+            segmentTags[segment][offset >>> 6] |= 1L << offset;
+            filteredEltSize++;
+        }
+        eltSize++;
+    }
+
+    private void addSegment(int segment) {
+        if (segment == segments.length) {
+            segments = Arrays.copyOf(segments, segment << 1);
+            segmentTags = Arrays.copyOf(segmentTags, segment << 1);
+            segmentRanks = Arrays.copyOf(segmentRanks, segment << 1);
+        }
+        segments[segment] = new Object[segmentMask + 1];
+        segmentTags[segment] = new long[TagIndex.wordCount(segmentMask + 1)];
+        segmentRanks[segment] = filteredEltSize;
+    }
+
+    public int size(boolean onlyTagged) {
+        if (onlyTagged) {
+            return this.filteredEltSize;
+        } else {
+            return this.eltSize;
+        }
+    }
+
+    public Optional<T> findFirst(boolean onlyTagged) {
+        return snapshot().findFirst(onlyTagged);
+    }
+
+    public void forEach(boolean onlyTagged, Consumer<? super T> fun) {
+        snapshot().forEach(onlyTagged, fun);
+    }
+
+    public Iterator<T> iterator(boolean onlyTagged) {
+        return snapshot().iterator(onlyTagged);
+    }
+
+    public Stream<T> stream(boolean onlyTagged) {
+        return snapshot().stream(onlyTagged, false);
+    }
+
+    public Stream<T> parallelStream(boolean onlyTagged) {
+        return snapshot().stream(onlyTagged, size(onlyTagged) >= TagIndex.PARALLEL_THRESHOLD);
+    }
+
+    private Snapshot snapshot() {
+        return new Snapshot(segments, segmentTags, segmentRanks, eltSize, filteredEltSize);
+    }
+
+    // the directory arrays of the buffer when it was taken, read up to the sizes of that time
+    private final class Snapshot {
+        private final Object[][] segments;
+        private final long[][] tags;
+        private final int[] ranks;
+        private final int size;
+        private final int taggedSize;
+
+        private Snapshot(Object[][] segments, long[][] tags, int[] ranks, int size, int taggedSize) {
+            this.segments = segments;
+            this.tags = tags;
+            this.ranks = ranks;
+            this.size = size;
+            this.taggedSize = taggedSize;
+        }
+
+        @SuppressWarnings("unchecked")
+        private T element(int index) {
+            return (T) segments[index >>> segmentShift][index & segmentMask];
+        }
+
+        // tag word of the whole buffer, segments hold a whole number of words
+        private long tagWord(int wordIndex) {
+            return tags[wordIndex >>> (segmentShift - 6)][wordIndex & (segmentMask >>> 6)];
+        }
+
+        // index of the first tagged element in [from, end), or end if there is none
+        private int next(int from, int end) {
+            return TagIndex.nextSet(this::tagWord, from, end);
+        }
+
+        // index of the tagged element of rank k, 0 <= k < taggedSize
+        private int select(int k) {
+            var low = 0;
+            var high = (size - 1) >>> segmentShift;
+            while (low < high) { // last segment whose rank is <= k
+                var middle = (low + high + 1) >>> 1;
+                if (ranks[middle] <= k) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return (low << segmentShift) + TagIndex.selectSet(tags[low], 0, k - ranks[low]);
+        }
+
+        private Optional<T> findFirst(boolean onlyTagged) {
+            var first = onlyTagged ? next(0, size) : 0;
+            return first == size ? Optional.empty() : Optional.of(element(first));
+        }
+
+        private void forEach(boolean onlyTagged, Consumer<? super T> fun) {
+            forEachBetween(onlyTagged, 0, size, fun);
+        }
+
+        // one counted loop per segment over [from, end), reading the tag words of the segment directly
+        @SuppressWarnings("unchecked")
+        private void forEachBetween(boolean onlyTagged, int from, int end, Consumer<? super T> fun) {
+            Objects.requireNonNull(fun);
+            var segmentShift = SegmentedTaggedBuffer.this.segmentShift;
+            var segmentMask = SegmentedTaggedBuffer.this.segmentMask;
+            while (from < end) {
+                var segmentIndex = from >>> segmentShift;
+                var segment = segments[segmentIndex];
+                var offset = from & segmentMask;
+                var offsetEnd = Math.min(segmentMask + 1, end - (segmentIndex << segmentShift));
+                if (onlyTagged) {
+                    var words = tags[segmentIndex];
+                    var firstWord = offset >>> 6;
+                    var lastWord = (offsetEnd - 1) >>> 6;
+                    for (var w = firstWord; w <= lastWord; w++) {
+                        var word = words[w];
+                        if (w == firstWord) {
+                            word &= -1L << offset;
+                        }
+                        if (w == lastWord) {
+                            word &= -1L >>> -offsetEnd;
+                        }
+                        for (; word != 0; word &= word - 1) {
+                            fun.accept((T) segment[(w << 6) + Long.numberOfTrailingZeros(word)]);
+                        }
+                    }
+                } else {
+                    for (var i = offset; i < offsetEnd; i++) {
+                        fun.accept((T) segment[i]);
+                    }
+                }
+                from = (segmentIndex << segmentShift) + offsetEnd;
+            }
+        }
+
+        private Iterator<T> iterator(boolean onlyTagged) {
+
+            return new Iterator<T>() {
+                private int next = onlyTagged ? Snapshot.this.next(0, size) : 0; // index of the next element to be returned
+
+                @Override
+                public boolean hasNext() {
+                    return next < size;
+                }
+
+                @Override
+                public T next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    var elt = element(next);
+                    next = onlyTagged ? Snapshot.this.next(next + 1, size) : next + 1;
+                    return elt;
+                }
+
+                @Override
+                public void forEachRemaining(Consumer<? super T> action) {
+                    var from = next;
+                    next = size;
+                    forEachBetween(onlyTagged, from, size, action);
+                }
+            };
+        }
+
+        private Stream<T> stream(boolean onlyTagged, boolean parallel) {
+            if (onlyTagged) {
+                return StreamSupport.stream(createSpliteratorOnlyTagged(0, size, 0, taggedSize), parallel);
+            } else {
+                return StreamSupport.stream(createSpliterator(0, size), parallel);
+            }
+        }
+
+        // covers the tagged elements of [start, end), whose ranks are [startRank, endRank)
+        private Spliterator<T> createSpliteratorOnlyTagged(int start, int end, int startRank, int endRank) {
+
+            return new Spliterator<T>() {
+                private int i = start;
+                private int rank = startRank;
+
+                @Override
+                public boolean tryAdvance(Consumer<? super T> consumer) {
+                    if (rank == endRank) {
+                        return false;
+                    }
+                    i = next(i, end);
+                    consumer.accept(element(i));
+                    i++;
+                    rank++;
+                    return true;
+                }
+
+                @Override
+                public void forEachRemaining(Consumer<? super T> consumer) {
+                    var from = i;
+                    i = end;
+                    rank = endRank;
+                    forEachBetween(true, from, end, consumer);
+                }
+
+                @Override
+                public Spliterator<T> trySplit() {
+                    var middleRank = (rank + endRank) >>> 1;
+                    if (middleRank == rank) {
+                        return null;
+                    }
+                    var middle = select(middleRank); // median tagged element, so both halves get the same work
+                    var spliterator = createSpliteratorOnlyTagged(i, middle, rank, middleRank);
+                    i = middle;
+                    rank = middleRank;
+                    return spliterator;
+                }
+
+                @Override
+                public long estimateSize() {
+                    return endRank - rank;
+                }
+
+                @Override
+                public int characteristics() {
+                    return NONNULL | ORDERED | SIZED | SUBSIZED;
+                }
+            };
+        }
+
+        private Spliterator<T> createSpliterator(int start, int end) {
+
+            return new Spliterator<T>() {
+                private int i = start;
+
+                @Override
+                public boolean tryAdvance(Consumer<? super T> consumer) {
+                    if (i < end) {
+                        consumer.accept(element(i++));
+                        return true;
+                    }
+                    return false;
+                }
+
+                @Override
+                public void forEachRemaining(Consumer<? super T> consumer) {
+                    var from = i;
+                    i = end;
+                    forEachBetween(false, from, end, consumer);
+                }
+
+                @Override
+                public Spliterator<T> trySplit() {
+                    var middle = (i + end) >>> 1;
+                    if (middle == i) {
+                        return null;
+                    }
+                    var spliterator = createSpliterator(i, middle);
+                    i = middle;
+                    return spliterator;
+                }
+
+                @Override
+                public long estimateSize() {
+                    return end - i;
+                }
+
+                @Override
+                public int characteristics() {
+                    return NONNULL | ORDERED | SUBSIZED | SIZED;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package fr.guihardbastien.boilerplate;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntPredicate;
+import java.util.function.IntToLongFunction;
+
+// Tags of the slots of a buffer, appended in slot order and never changed afterwards,
+// so a view reading slots below the size it saw is not affected by later appends
+abstract class TagIndex {
+    static final int PARALLEL_THRESHOLD = 1 << 13; // below this many elements, forking a stream costs more than the work
+
+    static int wordCount(int slots) {
+        return (slots + 63) >>> 6;
+    }
+
+    // Word scans shared by every tagged view: a bitmap is read through words, word i holding the bits of the slots
+    // [64 i, 64 i + 64), so that arrays, buffers and concurrently written words all go through the same loops
+
+    // first set bit in [from, end), or end if there is none; skips 64 clear bits per word
+    static int nextSet(IntToLongFunction words, int from, int end) {
+        if (from >= end) {
+            return end;
+        }
+        var wordIndex = from >>> 6;
+        var word = words.applyAsLong(wordIndex) & (-1L << from);
+        var lastWord = (end - 1) >>> 6;
+        while (word == 0) {
+            if (wordIndex == lastWord) {
+                return end;
+            }
+            word = words.applyAsLong(++wordIndex);
+        }
+        return Math.min((wordIndex << 6) + Long.numberOfTrailingZeros(word), end);
+    }
+
+    // number of set bits in [from, end)
+    static int countSet(IntToLongFunction words, int from, int end) {
+        if (from >= end) {
+            return 0;
+        }
+        var firstWord = from >>> 6;
+        var lastWord = (end - 1) >>> 6;
+        var lastMask = -1L >>> -end;
+        if (firstWord == lastWord) {
+            return Long.bitCount(words.applyAsLong(firstWord) & (-1L << from) & lastMask);
+        }
+        var count = Long.bitCount(words.applyAsLong(firstWord) & (-1L << from));
+        for (var w = firstWord + 1; w < lastWord; w++) {
+            count += Long.bitCount(words.applyAsLong(w));
+        }
+        return count + Long.bitCount(words.applyAsLong(lastWord) & lastMask);
+    }
+
+    // k-th set bit at or after from, there must be more than k of them
+    static int selectSet(IntToLongFunction words, int from, int k) {
+        var wordIndex = from >>> 6;
+        var word = words.applyAsLong(wordIndex) & (-1L << from);
+        for (var bits = Long.bitCount(word); k >= bits; bits = Long.bitCount(word)) {
+            k -= bits;
+            word = words.applyAsLong(++wordIndex);
+        }
+        for (; k > 0; k--) {
+            word &= word - 1;
+        }
+        return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    static int nextSet(long[] words, int from, int end) {
+        return nextSet(w -> words[w], from, end);
+    }
+
+    // first clear bit in [from, end), or end if there is none
+    static int nextClear(long[] words, int from, int end) {
+        return nextSet(w -> ~words[w], from, end);
+    }
+
+    static int countSet(long[] words, int from, int end) {
+        return countSet(w -> words[w], from, end);
+    }
+
+    static int selectSet(long[] words, int from, int k) {
+        return selectSet(w -> words[w], from, k);
+    }
+
+    // makes room for capacity slots, if the index needs to know it in advance
+    abstract void ensureCapacity(int capacity);
+
+    // releases the room kept for slots not appended yet
+    abstract void trimToSize();
+
+    abstract void append(boolean tagged);
+
+    // appends count slots, the tag of slot i being tagged.test(i); the tests run on pool. If a test fails, nothing is appended.
+    abstract void appendAll(int count, IntPredicate tagged, ForkJoinPool pool);
+
+    // number of slots
+    abstract int size();
+
+    // number of tagged slots
+    abstract int count();
+
+    abstract boolean isTagged(int index);
+
+    // index of the first tagged slot in [from, end), or end if there is none
+    abstract int next(int from, int end);
+
+    // slot of the tagged element of rank k, 0 <= k < count
+    abstract int select(int k);
+}
@@ -1,118 +1,551 @@
 package fr.guihardbastien.boilerplate;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 public class TaggedBuffer<T> {
-    private int arraySize = 4;
+    private static final int DEFAULT_CAPACITY = 4;
+
+    private int arraySize;
     private int eltSize = 0;
     private int filteredEltSize = 0;
-
-    private final Predicate<? super T> predicate;
-    private T[] elements = (T[]) new Object[arraySize];
+    private int firstTagged = 0; // slots of the first and last tagged elements, meaningless while filteredEltSize == 0
+    private int lastTagged = 0;
+
+    private Predicate<? super T> predicate;
+    private T[] elements;
+    private final GrowthPolicy growthPolicy;
+    private final boolean compressedTags;
+    private TagIndex tags; // tag decisions; retag replaces it, so views keep the one they started with
+    private long[] removed; // tombstones, one bit per slot, null until the first removal
+    private boolean removedShared; // a view holds removed, the next removal must copy it first
+    private int removedCount;
+    private int removedTaggedCount;
+    private double compactionRatio = 1;
+    private int traversals; // depth of the running forEach, forEachIndexed and removeIf, which defer compaction
 
     public TaggedBuffer(Predicate<? super T> fun) {
+        this(fun, DEFAULT_CAPACITY);
+    }
+
+    // room for initialCapacity elements before the first reallocation
+    public TaggedBuffer(Predicate<? super T> fun, int initialCapacity) {
+        this(fun, initialCapacity, GrowthPolicy.doubling());
+    }
+
+    public TaggedBuffer(Predicate<? super T> fun, int initialCapacity, GrowthPolicy growthPolicy) {
+        this(fun, initialCapacity, growthPolicy, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private TaggedBuffer(Predicate<? super T> fun, int initialCapacity, GrowthPolicy growthPolicy, boolean compressedTags) {
         Objects.requireNonNull(fun);
+        Objects.requireNonNull(growthPolicy);
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("negative capacity: " + initialCapacity);
+        }
         this.predicate = fun;
+        this.arraySize = initialCapacity;
+        this.elements = (T[]) new Object[initialCapacity];
+        this.growthPolicy = growthPolicy;
+        this.compressedTags = compressedTags;
+        this.tags = newTagIndex();
+    }
+
+    // buffer whose tags are kept in compressed containers instead of a bitmap with one bit per element,
+    // for tags so sparse or so dense that the bitmap would mostly hold zeros or ones
+    public static <T> TaggedBuffer<T> withCompressedTags(Predicate<? super T> fun) {
+        return new TaggedBuffer<>(fun, DEFAULT_CAPACITY, GrowthPolicy.doubling(), true);
+    }
+
+    private TagIndex newTagIndex() {
+        return compressedTags ? new CompressedTagIndex() : new BitmapTagIndex(arraySize);
     }
 
     private void grow() {
         if (eltSize == arraySize) {
-            this.arraySize *= 2;
-            this.elements = Arrays.copyOf(this.elements, this.arraySize);
+            growFor(1);
         }
     }
 
-    public List<T> asTaggedList() {
+    // single reallocation for a batch, sized by the growth policy so that repeated small batches stay amortized O(1)
+    private void growFor(int count) {
+        var minCapacity = eltSize + count;
+        if (minCapacity < 0) {
+            throw new IllegalStateException("buffer is full");
+        }
+        if (minCapacity > arraySize) {
+            var capacity = growthPolicy.grow(arraySize, minCapacity);
+            if (capacity < minCapacity) {
+                throw new IllegalStateException("growth policy returned " + capacity + " for " + minCapacity + " elements");
+            }
+            resize(capacity);
+        }
+    }
 
-        var indexesArray = new int[filteredEltSize];
-        var j = 0;
+    private void resize(int capacity) {
+        TaggedBufferMetrics.grown(arraySize, capacity, eltSize);
+        this.arraySize = capacity;
+        this.elements = Arrays.copyOf(this.elements, capacity);
+        this.tags.ensureCapacity(capacity);
+        if (removed != null) {
+            this.removed = Arrays.copyOf(this.removed, TagIndex.wordCount(capacity));
+            this.removedShared = false;
+        }
+    }
 
-        for (int i = 0; i < eltSize; i++) {
-            if (predicate.test(elements[i])) {
-                indexesArray[j] = i;
-                j++;
-            }
+    // makes room for minCapacity elements at once, so that adding them does not reallocate
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity > arraySize) {
+            resize(minCapacity);
         }
+    }
 
-        class TaggedList extends AbstractList<T> implements RandomAccess {
-            private final int[] filteredIndexes = indexesArray;
+    // shrinks the storage to the slots in use
+    public void trimToSize() {
+        if (eltSize < arraySize) {
+            resize(eltSize);
+            tags.trimToSize();
+        }
+    }
+
+    // snapshot of the tagged elements at the time of the call, sharing the buffer's tag index without copying it
+    public List<T> asTaggedList() {
+        var array = this.elements;
+        var tags = this.tags;
+        var size = size(true);
+        var positions = removedTaggedCount == 0 ? null : livePositions(); // the ranks of the index count removed slots
 
+        class TaggedList extends AbstractList<T> implements RandomAccess {
             @Override
             public T get(int index) {
-                return TaggedBuffer.this.elements[filteredIndexes[index]];
+                Objects.checkIndex(index, size);
+                return array[positions == null ? tags.select(index) : positions[index]];
             }
 
             @Override
             public int size() {
-                return filteredIndexes.length;
+                return size;
             }
         }
         return new TaggedList();
     }
 
+    // slots of the tagged elements that were not removed
+    private int[] livePositions() {
+        var positions = new int[size(true)];
+        var tags = this.tags;
+        var removed = this.removed;
+        var size = this.eltSize;
+        var k = 0;
+        for (var i = nextLive(tags, removed, true, 0, size); i < size; i = nextLive(tags, removed, true, i + 1, size)) {
+            positions[k++] = i;
+        }
+        return positions;
+    }
+
     public void add(T elt) {
         Objects.requireNonNull(elt);
         grow();
         elements[eltSize] = elt;
-        if (this.predicate.test(elt)) {
+        tagNext(test(this.predicate, elt));
+    }
+
+    public void addAll(Collection<? extends T> elts) {
+        Objects.requireNonNull(elts);
+        var array = elts.toArray();
+        append(array, 0, array.length);
+    }
+
+    public void addAll(Stream<? extends T> elts) {
+        Objects.requireNonNull(elts);
+        var array = elts.toArray();
+        append(array, 0, array.length);
+    }
+
+    public void addAll(T[] elts, int from, int to) {
+        Objects.requireNonNull(elts);
+        Objects.checkFromToIndex(from, to, elts.length);
+        append(elts, from, to);
+    }
+
+    // evaluates the predicate on pool; all elements are added, or none if one is null or the predicate fails
+    public void addAll(Collection<? extends T> elts, ForkJoinPool pool) {
+        Objects.requireNonNull(elts);
+        Objects.requireNonNull(pool);
+        var array = elts.toArray();
+        append(array, 0, array.length, pool);
+    }
+
+    public void addAll(T[] elts, int from, int to, ForkJoinPool pool) {
+        Objects.requireNonNull(elts);
+        Objects.checkFromToIndex(from, to, elts.length);
+        Objects.requireNonNull(pool);
+        append(elts, from, to, pool);
+    }
+
+    private void append(Object[] elts, int from, int to, ForkJoinPool pool) {
+        var count = to - from;
+        growFor(count);
+        var elements = this.elements;
+        var start = eltSize;
+        var end = start + count;
+        System.arraycopy(elts, from, elements, start, count);
+        var taggedBefore = tags.count();
+        try {
+            tags.appendAll(count, i -> test(predicate, Objects.requireNonNull(elements[i])), pool);
+        } catch (RuntimeException | Error e) {
+            Arrays.fill(elements, start, end, null);
+            throw e;
+        }
+        if (tags.count() != taggedBefore) {
+            if (filteredEltSize == 0) {
+                firstTagged = tags.select(0);
+            }
+            lastTagged = tags.select(tags.count() - 1);
+            filteredEltSize = tags.count();
+        }
+        eltSize = end;
+        TaggedBufferMetrics.added(count);
+    }
+
+    // same as calling add on each element: if one is null or the predicate fails, the ones before it stay added
+    private void append(Object[] elts, int from, int to) {
+        var count = to - from;
+        growFor(count);
+        var elements = this.elements;
+        var start = eltSize;
+        var end = start + count;
+        System.arraycopy(elts, from, elements, start, count);
+        var i = start;
+        try {
+            for (; i < end; i++) {
+                tagNext(test(this.predicate, Objects.requireNonNull(elements[i])));
+            }
+        } finally {
+            Arrays.fill(elements, i, end, null);
+        }
+    }
+
+    // re-evaluates the tags of all the elements with fun, which then tags the elements added later; the elements are
+    // not copied, only a new tag index is built. Large buffers are tagged on the common pool.
+    // If fun fails, the buffer keeps its previous predicate and tags. Views created before keep the previous tags.
+    public void retag(Predicate<? super T> fun) {
+        retag(fun, ForkJoinPool.commonPool());
+    }
+
+    // same as retag, evaluating fun on pool
+    public void retag(Predicate<? super T> fun, ForkJoinPool pool) {
+        Objects.requireNonNull(fun);
+        Objects.requireNonNull(pool);
+        var elements = this.elements;
+        var removed = this.removed;
+        var tags = newTagIndex();
+        tags.appendAll(eltSize, i -> !isRemoved(removed, i) && test(fun, elements[i]), pool); // removed slots stay untagged
+        this.predicate = fun;
+        this.tags = tags;
+        this.filteredEltSize = tags.count();
+        this.removedTaggedCount = 0;
+        if (filteredEltSize != 0) {
+            firstTagged = tags.select(0);
+            lastTagged = tags.select(filteredEltSize - 1);
+        }
+    }
+
+    // removes the element at slot, the slot given by forEachIndexed; slots do not change until the buffer is compacted.
+    // Returns false if that element was already removed.
+    public boolean remove(int slot) {
+        Objects.checkIndex(slot, eltSize);
+        if (!markRemoved(slot)) {
+            return false;
+        }
+        compactIfNeeded();
+        return true;
+    }
+
+    // removes the elements, or the tagged elements, accepted by filter
+    public boolean removeIf(boolean onlyTagged, Predicate<? super T> filter) {
+        Objects.requireNonNull(filter);
+        var elements = this.elements;
+        var tags = this.tags;
+        var size = this.eltSize;
+        var modified = false;
+        traversals++;
+        try {
+            // this.removed is read at each step, markRemoved may have replaced it
+            for (var i = nextLive(tags, removed, onlyTagged, 0, size); i < size; i = nextLive(tags, removed, onlyTagged, i + 1, size)) {
+                if (filter.test(elements[i])) {
+                    markRemoved(i);
+                    modified = true;
+                }
+            }
+        } finally {
+            endTraversal();
+        }
+        return modified;
+    }
+
+    // compacts the buffer after a removal once more than ratio of its slots hold removed elements;
+    // with 1, the default, the buffer is only compacted by compact()
+    public void setCompactionRatio(double ratio) {
+        if (!(ratio > 0 && ratio <= 1)) {
+            throw new IllegalArgumentException("ratio must be in (0, 1]: " + ratio);
+        }
+        this.compactionRatio = ratio;
+    }
+
+    private void compactIfNeeded() {
+        if (traversals == 0 && removedCount > compactionRatio * eltSize) {
+            compact();
+        }
+    }
+
+    // compacts once the outermost traversal ends, so the slots forEachIndexed gave stay valid during the traversal
+    private void endTraversal() {
+        if (--traversals == 0) {
+            compactIfNeeded();
+        }
+    }
+
+    // tombstone for slot, false if there is one already; copies the tombstones first if a view reads them
+    private boolean markRemoved(int slot) {
+        if (removed == null) {
+            this.removed = new long[TagIndex.wordCount(arraySize)];
+        } else if (removedShared) {
+            this.removed = removed.clone();
+            this.removedShared = false;
+        }
+        if (isRemoved(removed, slot)) {
+            return false;
+        }
+        removed[slot >>> 6] |= 1L << slot;
+        removedCount++;
+        if (tags.isTagged(slot)) {
+            removedTaggedCount++;
+        }
+        return true;
+    }
+
+    // tombstones for an iterator or a spliterator, which must not see the removals made after its creation;
+    // forEach, forEachIndexed and removeIf run to completion before returning and read the tombstones unshared,
+    // so that they do not make the next removal copy them
+    private long[] removedView() {
+        if (removed != null) {
+            removedShared = true;
+        }
+        return removed;
+    }
+
+    private static boolean isRemoved(long[] removed, int slot) {
+        return removed != null && (removed[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    // first slot of [from, end) holding an element not removed, and tagged if onlyTagged; end if there is none
+    private static int nextLive(TagIndex tags, long[] removed, boolean onlyTagged, int from, int end) {
+        if (from >= end) {
+            return end;
+        }
+        if (!onlyTagged) {
+            return removed == null ? from : TagIndex.nextClear(removed, from, end);
+        }
+        var i = tags.next(from, end);
+        while (i < end && isRemoved(removed, i)) {
+            i = tags.next(i + 1, end);
+        }
+        return i;
+    }
+
+    // squeezes the removed elements out, copying each run of remaining elements at once, into new arrays so that
+    // the views created before keep working; the remaining elements keep their order but not their slots
+    @SuppressWarnings("unchecked")
+    public void compact() {
+        if (removedCount == 0) {
+            return;
+        }
+        var elements = this.elements;
+        var tags = this.tags;
+        var removed = this.removed;
+        var size = this.eltSize;
+        var compacted = (T[]) new Object[arraySize];
+        var compactedTags = newTagIndex();
+        var length = 0;
+        for (var start = TagIndex.nextClear(removed, 0, size); start < size; ) {
+            var end = TagIndex.nextSet(removed, start, size);
+            System.arraycopy(elements, start, compacted, length, end - start);
+            for (var i = start; i < end; i++) {
+                compactedTags.append(tags.isTagged(i));
+            }
+            length += end - start;
+            start = TagIndex.nextClear(removed, end, size);
+        }
+        this.elements = compacted;
+        this.tags = compactedTags;
+        this.eltSize = length;
+        this.filteredEltSize = compactedTags.count();
+        if (filteredEltSize != 0) {
+            firstTagged = compactedTags.select(0);
+            lastTagged = compactedTags.select(filteredEltSize - 1);
+        }
+        this.removed = null;
+        this.removedShared = false;
+        this.removedCount = 0;
+        this.removedTaggedCount = 0;
+    }
+
+    // every evaluation of a predicate goes through here, so the metrics also count the ones that throw
+    private static <E> boolean test(Predicate<? super E> predicate, E elt) {
+        TaggedBufferMetrics.predicateCalled();
+        return predicate.test(elt);
+    }
+
+    // records the tag of the element just written at eltSize, and makes it part of the buffer
+    private void tagNext(boolean tagged) {
+        tags.append(tagged);
+        if (tagged) {
+            if (filteredEltSize == 0) {
+                firstTagged = eltSize;
+            }
+            lastTagged = eltSize;
             filteredEltSize++;
         }
         eltSize++;
+        TaggedBufferMetrics.added(1);
     }
 
     public int size(boolean onlyTagged) {
         if (onlyTagged) {
-            return this.filteredEltSize;
+            return this.filteredEltSize - this.removedTaggedCount;
         } else {
-            return this.eltSize;
+            return this.eltSize - this.removedCount;
         }
     }
 
     public Optional<T> findFirst(boolean onlyTagged) {
+        if (removedCount != 0) {
+            var first = nextLive(tags, removed, onlyTagged, onlyTagged ? firstTagged : 0, eltSize);
+            return first == eltSize ? Optional.empty() : Optional.of(elements[first]);
+        }
         if (onlyTagged) {
-            return Arrays.stream(elements)
-                    .filter(Objects::nonNull)
-                    .filter(predicate)
-                    .findFirst();
+            return filteredEltSize == 0 ? Optional.empty() : Optional.of(elements[firstTagged]);
         } else {
-            return Optional.ofNullable(elements[0]);
+            return eltSize == 0 ? Optional.empty() : Optional.of(elements[0]);
         }
     }
 
-    public void forEach(boolean onlyTagged, Consumer<? super T> fun) {
+    public Optional<T> findLast(boolean onlyTagged) {
+        if (removedCount != 0) {
+            if (size(onlyTagged) == 0) {
+                return Optional.empty();
+            }
+            for (var i = onlyTagged ? lastTagged : eltSize - 1; i >= 0; i--) {
+                if (!isRemoved(removed, i) && (!onlyTagged || tags.isTagged(i))) {
+                    return Optional.of(elements[i]);
+                }
+            }
+            return Optional.empty();
+        }
         if (onlyTagged) {
-            // boucle !! jusqu au max. ou la fonction de stream
-            Arrays.stream(elements).filter(Objects::nonNull).filter(predicate).forEach(fun);
+            return filteredEltSize == 0 ? Optional.empty() : Optional.of(elements[lastTagged]);
         } else {
-            Arrays.stream(elements).filter(Objects::nonNull).forEach(fun);
+            return eltSize == 0 ? Optional.empty() : Optional.of(elements[eltSize - 1]);
+        }
+    }
+
+    // n-th element (from 0) of the buffer or of its tagged elements, empty if there are not that many
+    public Optional<T> findNth(boolean onlyTagged, int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("negative position: " + n);
+        }
+        if (n >= size(onlyTagged)) {
+            return Optional.empty();
+        }
+        if (removedCount != 0) { // linear until the buffer is compacted
+            var i = nextLive(tags, removed, onlyTagged, 0, eltSize);
+            for (; n > 0; n--) {
+                i = nextLive(tags, removed, onlyTagged, i + 1, eltSize);
+            }
+            return Optional.of(elements[i]);
+        }
+        return Optional.of(elements[onlyTagged ? tags.select(n) : n]);
+    }
+
+    // removals made by fun may or may not be seen by the rest of the traversal; compaction waits for its end
+    public void forEach(boolean onlyTagged, Consumer<? super T> fun) {
+        Objects.requireNonNull(fun);
+        var elements = this.elements;
+        var tags = this.tags;
+        var removed = this.removed;
+        var size = this.eltSize;
+        TaggedBufferMetrics.scanned(onlyTagged, size);
+        traversals++;
+        try {
+            if (removed != null) {
+                for (var i = nextLive(tags, removed, onlyTagged, 0, size); i < size; i = nextLive(tags, removed, onlyTagged, i + 1, size)) {
+                    fun.accept(elements[i]);
+                }
+            } else if (onlyTagged) {
+                for (var i = tags.next(0, size); i < size; i = tags.next(i + 1, size)) {
+                    fun.accept(elements[i]);
+                }
+            } else {
+                for (var i = 0; i < size; i++) {
+                    fun.accept(elements[i]);
+                }
+            }
+        } finally {
+            endTraversal();
+        }
+    }
+
+    // same as forEach, also passing the slot of each element, which stays valid until the traversal ends
+    public void forEachIndexed(boolean onlyTagged, ObjIntConsumer<? super T> fun) {
+        Objects.requireNonNull(fun);
+        var elements = this.elements;
+        var tags = this.tags;
+        var removed = this.removed;
+        var size = this.eltSize;
+        TaggedBufferMetrics.scanned(onlyTagged, size);
+        traversals++;
+        try {
+            if (removed != null) {
+                for (var i = nextLive(tags, removed, onlyTagged, 0, size); i < size; i = nextLive(tags, removed, onlyTagged, i + 1, size)) {
+                    fun.accept(elements[i], i);
+                }
+            } else if (onlyTagged) {
+                for (var i = tags.next(0, size); i < size; i = tags.next(i + 1, size)) {
+                    fun.accept(elements[i], i);
+                }
+            } else {
+                for (var i = 0; i < size; i++) {
+                    fun.accept(elements[i], i);
+                }
+            }
+        } finally {
+            endTraversal();
         }
     }
 
     public Iterator<T> iterator(boolean onlyTagged) {
+        TaggedBufferMetrics.iteratorCreated(onlyTagged, eltSize);
 
         return new Iterator<T>() {
+            private final T[] array = elements;
+            private final TagIndex tagIndex = tags;
+            private final long[] removedSlots = removedView();
             private final int maxSize = eltSize;
-            private final int maxTaggedElements = filteredEltSize;
+            private final int maxElements = size(false);
+            private final int maxTaggedElements = size(true);
             private int startLookup = 0; // findNext(onlyTagged, 0); // index of the next element to be returned by next
             private int nbReturn;
 
             private int findNext(boolean onlyTagged, int startIncluded) {
-                if (onlyTagged) {
-                    var i = startIncluded;
-                    while (i < maxSize) {
-                        if (predicate.test(elements[i])) {
-                            return i;
-                        }
-                        i++;
-                    }
-                    return maxSize;
-                } else {
-                    return startIncluded;
-                }
+                return nextLive(tagIndex, removedSlots, onlyTagged, startIncluded, maxSize);
             }
 
             @Override
@@ -120,7 +553,7 @@ public class TaggedBuffer<T> {
                 if (onlyTagged) {
                     return nbReturn < maxTaggedElements;
                 } else {
-                    return nbReturn < maxSize;
+                    return nbReturn < maxElements;
                 }
             }
 
@@ -131,66 +564,201 @@ public class TaggedBuffer<T> {
                 }
 
                 var next = findNext(onlyTagged, startLookup);
-                T elt = elements[next]; // element to be returned
+                T elt = array[next]; // element to be returned
                 startLookup = next + 1;
                 nbReturn++;
                 return elt;
             }
+
+            @Override
+            public void forEachRemaining(Consumer<? super T> action) {
+                Objects.requireNonNull(action);
+                var array = this.array;
+                var tagIndex = this.tagIndex;
+                var removedSlots = this.removedSlots;
+                var end = maxSize;
+                var slot = startLookup;
+                var remaining = (onlyTagged ? maxTaggedElements : maxElements) - nbReturn;
+                startLookup = end;
+                nbReturn += remaining;
+                if (removedSlots != null) {
+                    for (; remaining > 0; remaining--) {
+                        slot = nextLive(tagIndex, removedSlots, onlyTagged, slot, end);
+                        action.accept(array[slot++]);
+                    }
+                } else if (onlyTagged) {
+                    for (; remaining > 0; remaining--) {
+                        slot = tagIndex.next(slot, end);
+                        action.accept(array[slot++]);
+                    }
+                } else {
+                    for (; slot < end; slot++) {
+                        action.accept(array[slot]);
+                    }
+                }
+            }
         };
     }
 
     @SuppressWarnings("unchecked")
     public Stream<T> stream(boolean onlyTagged) {
+        return stream(onlyTagged, false, 1);
+    }
+
+    public Stream<T> parallelStream(boolean onlyTagged) {
+        return parallelStream(onlyTagged, TagIndex.PARALLEL_THRESHOLD);
+    }
+
+    // stays sequential when there are fewer than minSplitSize elements, and never splits below minSplitSize
+    public Stream<T> parallelStream(boolean onlyTagged, int minSplitSize) {
+        if (minSplitSize < 1) {
+            throw new IllegalArgumentException("minSplitSize must be positive: " + minSplitSize);
+        }
+        return stream(onlyTagged, size(onlyTagged) >= minSplitSize, minSplitSize);
+    }
+
+    // runs the pipeline inside pool, so the parallel stream forks its tasks there instead of in the common pool
+    public <R> R parallelStream(boolean onlyTagged, ForkJoinPool pool, Function<? super Stream<T>, ? extends R> pipeline) {
+        Objects.requireNonNull(pool);
+        Objects.requireNonNull(pipeline);
+        var stream = parallelStream(onlyTagged);
+        return pool.submit(() -> pipeline.apply(stream)).join();
+    }
+
+    private Stream<T> stream(boolean onlyTagged, boolean parallel, int minSplitSize) {
+        TaggedBufferMetrics.streamCreated(onlyTagged, eltSize);
+        if (removedCount != 0) {
+            var spliterator = createSpliteratorSkippingRemoved(0, this.eltSize, size(onlyTagged), true, this.elements, onlyTagged ? this.tags : null, removedView(), minSplitSize);
+            return StreamSupport.stream(spliterator, parallel);
+        }
         if (onlyTagged) {
-            return StreamSupport.stream(createSpliteratorOnlyTagged(0, this.eltSize, this.elements), true);
+            return StreamSupport.stream(createSpliteratorOnlyTagged(0, this.eltSize, 0, this.filteredEltSize, this.elements, this.tags, minSplitSize), parallel);
         } else {
-            return StreamSupport.stream(createSpliterator(0, this.eltSize, this.elements), true);
+            return StreamSupport.stream(createSpliterator(0, this.eltSize, this.elements, minSplitSize), parallel);
         }
     }
 
-    private Spliterator<T> createSpliteratorOnlyTagged(int start, int end, T[] array) {
+    // covers the tagged slots of [start, end), whose ranks are [startRank, endRank)
+    private Spliterator<T> createSpliteratorOnlyTagged(int start, int end, int startRank, int endRank, T[] array, TagIndex tags, int minSplitSize) {
 
         return new Spliterator<T>() {
 
             private int i = start;
+            private int rank = startRank;
 
             @Override
             public boolean tryAdvance(Consumer<? super T> consumer) {
-                while (i != end) {
-                    if (predicate.test(elements[i])) {
-                        consumer.accept(elements[i]);
-                        i++;
-                        return true;
+                if (rank == endRank) {
+                    return false;
+                }
+                i = tags.next(i, end);
+                consumer.accept(array[i]);
+                i++;
+                rank++;
+                return true;
+            }
+
+            @Override
+            public void forEachRemaining(Consumer<? super T> consumer) {
+                Objects.requireNonNull(consumer);
+                var slot = i;
+                var remaining = endRank - rank; // the ranks say how many are left, so the loop needs no bound on the slots
+                i = end;
+                rank = endRank;
+                for (; remaining > 0; remaining--) {
+                    slot = tags.next(slot, end);
+                    consumer.accept(array[slot++]);
+                }
+            }
+
+            @Override
+            public Spliterator<T> trySplit() {
+                var middleRank = (rank + endRank) >>> 1;
+                if (middleRank - rank < minSplitSize) {
+                    return null;
+                }
+                var middle = tags.select(middleRank); // median tagged element, so both halves get the same work
+                var spliterator = createSpliteratorOnlyTagged(i, middle, rank, middleRank, array, tags, minSplitSize);
+                i = middle;
+                rank = middleRank;
+                return spliterator;
+            }
+
+            @Override
+            public long estimateSize() {
+                return endRank - rank;
+            }
+
+            @Override
+            public int characteristics() {
+                return NONNULL | ORDERED | SIZED | SUBSIZED;
+            }
+        };
+    }
+
+    // covers the elements of [start, end) that were not removed, only the tagged ones if tags is not null;
+    // without the ranks of the remaining elements, splits halve the slots and the size is an estimate. Until then
+    // the size is exact, so the stream still knows it, e.g. count() returns it without a traversal
+    private Spliterator<T> createSpliteratorSkippingRemoved(int start, int end, long size, boolean exact, T[] array, TagIndex tags, long[] removed, int minSplitSize) {
+
+        return new Spliterator<T>() {
+            private int i = start;
+            private long estimatedSize = size;
+            private boolean sized = exact;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> consumer) {
+                i = nextLive(tags, removed, tags != null, i, end);
+                if (i < end) {
+                    consumer.accept(array[i++]);
+                    if (sized) {
+                        estimatedSize--;
                     }
-                    i++;
+                    return true;
                 }
                 return false;
             }
 
+            @Override
+            public void forEachRemaining(Consumer<? super T> consumer) {
+                Objects.requireNonNull(consumer);
+                var onlyTagged = tags != null;
+                var slot = nextLive(tags, removed, onlyTagged, i, end);
+                i = end;
+                if (sized) {
+                    estimatedSize = 0;
+                }
+                for (; slot < end; slot = nextLive(tags, removed, onlyTagged, slot + 1, end)) {
+                    consumer.accept(array[slot]);
+                }
+            }
+
             @Override
             public Spliterator<T> trySplit() {
-                var middle = (i + end) >> 1;
-                if (middle == i) {
+                var middle = (i + end) >>> 1;
+                if ((estimatedSize >>> 1) < minSplitSize || middle == i) {
                     return null;
                 }
-                var spliterator = createSpliteratorOnlyTagged(i, middle, array);
+                sized = false;
+                estimatedSize -= estimatedSize >>> 1;
+                var spliterator = createSpliteratorSkippingRemoved(i, middle, estimatedSize, false, array, tags, removed, minSplitSize);
                 i = middle;
                 return spliterator;
             }
 
             @Override
             public long estimateSize() {
-                return end - i;
+                return estimatedSize;
             }
 
             @Override
             public int characteristics() {
-                return NONNULL | ORDERED;
+                return sized ? NONNULL | ORDERED | SIZED : NONNULL | ORDERED;
             }
         };
     }
 
-    private Spliterator<T> createSpliterator(int start, int end, T[] array) {
+    private Spliterator<T> createSpliterator(int start, int end, T[] array, int minSplitSize) {
 
         return new Spliterator<T>() {
             private int i = start;
@@ -204,13 +772,23 @@ public class TaggedBuffer<T> {
                 return false;
             }
 
+            @Override
+            public void forEachRemaining(Consumer<? super T> consumer) {
+                Objects.requireNonNull(consumer);
+                var from = i;
+                i = end;
+                for (var slot = from; slot < end; slot++) {
+                    consumer.accept(array[slot]);
+                }
+            }
+
             @Override
             public Spliterator<T> trySplit() {
-                var middle = (i + end) >> 1;
-                if (middle == i) {
+                var middle = (i + end) >>> 1;
+                if (middle - i < minSplitSize) {
                     return null;
                 }
-                var spliterator = createSpliterator(i, middle, array);
+                var spliterator = createSpliterator(i, middle, array, minSplitSize);
                 i = middle;
                 return spliterator;
             }
@@ -222,7 +800,7 @@ public class TaggedBuffer<T> {
 
             @Override
             public int characteristics() {
-                return NONNULL | SUBSIZED | SIZED;
+                return NONNULL | ORDERED | SIZED | SUBSIZED;
             }
         };
     }
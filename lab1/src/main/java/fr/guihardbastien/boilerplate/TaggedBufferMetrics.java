@@ -0,0 +1,210 @@
+package fr.guihardbastien.boilerplate;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+// Opt-in counters of what the TaggedBuffers do, enabled with -Dfr.guihardbastien.boilerplate.metrics=true.
+// Published through an MXBean and JFR events. ENABLED is a static final, so when metrics are off the JIT removes
+// the calls along with their check; when on, the counters are LongAdders, so adding threads do not contend.
+public final class TaggedBufferMetrics implements TaggedBufferMetricsMXBean {
+    static final boolean ENABLED = Boolean.getBoolean("fr.guihardbastien.boilerplate.metrics");
+    private static final String OBJECT_NAME = "fr.guihardbastien.boilerplate:type=TaggedBufferMetrics";
+    private static final int REFERENCE_BYTES = 4; // compressed oops, the default below 32 GB of heap
+    private static final TaggedBufferMetrics INSTANCE = new TaggedBufferMetrics();
+
+    private final LongAdder adds = new LongAdder();
+    private final LongAdder predicateCalls = new LongAdder();
+    private final LongAdder grows = new LongAdder();
+    private final LongAdder bytesCopied = new LongAdder();
+    private final LongAdder iteratorsCreated = new LongAdder();
+    private final LongAdder streamsCreated = new LongAdder();
+    private final LongAdder taggedScans = new LongAdder();
+    private final LongAdder taggedScanSlots = new LongAdder();
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+            } catch (JMException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+            FlightRecorder.addPeriodicEvent(StatisticsEvent.class, TaggedBufferMetrics::emitStatistics);
+        }
+    }
+
+    private TaggedBufferMetrics() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    // the counters, all 0 if metrics are disabled
+    public static TaggedBufferMetricsMXBean metrics() {
+        return INSTANCE;
+    }
+
+    @Name("fr.guihardbastien.boilerplate.Grow")
+    @Label("TaggedBuffer Grow")
+    @Category("TaggedBuffer")
+    @Description("Reallocation of the elements of a TaggedBuffer")
+    private static final class GrowEvent extends Event {
+        @Label("Old Capacity")
+        int oldCapacity;
+
+        @Label("New Capacity")
+        int newCapacity;
+
+        @Label("Bytes Copied")
+        long bytesCopied;
+    }
+
+    @Name("fr.guihardbastien.boilerplate.Statistics")
+    @Label("TaggedBuffer Statistics")
+    @Category("TaggedBuffer")
+    @Description("Counters of all the TaggedBuffers since the start of the JVM")
+    @Period("1 s")
+    @StackTrace(false)
+    private static final class StatisticsEvent extends Event {
+        @Label("Adds")
+        long adds;
+
+        @Label("Predicate Calls")
+        long predicateCalls;
+
+        @Label("Grows")
+        long grows;
+
+        @Label("Bytes Copied")
+        long bytesCopied;
+
+        @Label("Iterators Created")
+        long iteratorsCreated;
+
+        @Label("Streams Created")
+        long streamsCreated;
+
+        @Label("Tagged Scans")
+        long taggedScans;
+
+        @Label("Tagged Scan Slots")
+        long taggedScanSlots;
+    }
+
+    private static void emitStatistics() {
+        var event = new StatisticsEvent();
+        event.adds = INSTANCE.getAdds();
+        event.predicateCalls = INSTANCE.getPredicateCalls();
+        event.grows = INSTANCE.getGrows();
+        event.bytesCopied = INSTANCE.getBytesCopied();
+        event.iteratorsCreated = INSTANCE.getIteratorsCreated();
+        event.streamsCreated = INSTANCE.getStreamsCreated();
+        event.taggedScans = INSTANCE.getTaggedScans();
+        event.taggedScanSlots = INSTANCE.getTaggedScanSlots();
+        event.commit();
+    }
+
+    // count elements added
+    static void added(int count) {
+        if (ENABLED) {
+            INSTANCE.adds.add(count);
+        }
+    }
+
+    // one evaluation of a predicate, when adding or retagging, counted before the call so failing ones count too
+    static void predicateCalled() {
+        if (ENABLED) {
+            INSTANCE.predicateCalls.increment();
+        }
+    }
+
+    // reallocation from oldCapacity to newCapacity, copying the references of size elements
+    static void grown(int oldCapacity, int newCapacity, int size) {
+        if (ENABLED) {
+            var bytes = (long) size * REFERENCE_BYTES;
+            INSTANCE.grows.increment();
+            INSTANCE.bytesCopied.add(bytes);
+            var event = new GrowEvent();
+            if (event.shouldCommit()) {
+                event.oldCapacity = oldCapacity;
+                event.newCapacity = newCapacity;
+                event.bytesCopied = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    // iterator over the slots first slots of a buffer
+    static void iteratorCreated(boolean onlyTagged, int slots) {
+        if (ENABLED) {
+            INSTANCE.iteratorsCreated.increment();
+            scanned(onlyTagged, slots);
+        }
+    }
+
+    static void streamCreated(boolean onlyTagged, int slots) {
+        if (ENABLED) {
+            INSTANCE.streamsCreated.increment();
+            scanned(onlyTagged, slots);
+        }
+    }
+
+    // traversal of the first slots slots of a buffer, counted if it only looks for the tagged elements
+    static void scanned(boolean onlyTagged, int slots) {
+        if (ENABLED && onlyTagged) {
+            INSTANCE.taggedScans.increment();
+            INSTANCE.taggedScanSlots.add(slots);
+        }
+    }
+
+    @Override
+    public long getAdds() {
+        return adds.sum();
+    }
+
+    @Override
+    public long getPredicateCalls() {
+        return predicateCalls.sum();
+    }
+
+    @Override
+    public long getGrows() {
+        return grows.sum();
+    }
+
+    @Override
+    public long getBytesCopied() {
+        return bytesCopied.sum();
+    }
+
+    @Override
+    public long getIteratorsCreated() {
+        return iteratorsCreated.sum();
+    }
+
+    @Override
+    public long getStreamsCreated() {
+        return streamsCreated.sum();
+    }
+
+    @Override
+    public long getTaggedScans() {
+        return taggedScans.sum();
+    }
+
+    @Override
+    public long getTaggedScanSlots() {
+        return taggedScanSlots.sum();
+    }
+}
@@ -0,0 +1,22 @@
+package fr.guihardbastien.boilerplate;
+
+// Counters of all the TaggedBuffers of the JVM, registered as fr.guihardbastien.boilerplate:type=TaggedBufferMetrics
+public interface TaggedBufferMetricsMXBean {
+    long getAdds();
+
+    // evaluations of the predicates when adding or retagging, including the ones that throw
+    long getPredicateCalls();
+
+    long getGrows();
+
+    long getBytesCopied();
+
+    long getIteratorsCreated();
+
+    long getStreamsCreated();
+
+    long getTaggedScans();
+
+    // slots covered by the tagged scans, to compare with the number of tagged elements they returned
+    long getTaggedScanSlots();
+}
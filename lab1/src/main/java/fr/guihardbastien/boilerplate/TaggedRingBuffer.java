@@ -0,0 +1,263 @@
+package fr.guihardbastien.boilerplate;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// TaggedBuffer keeping only the last capacity elements: once full, adding an element overwrites the oldest one.
+// Elements and tags live in arrays allocated by the constructor and used as circles, so adding never allocates.
+// Views go over the elements in arrival order and, as the slots they read get overwritten,
+// fail with a ConcurrentModificationException if the buffer is modified after their creation.
+public class TaggedRingBuffer<T> {
+    private final Predicate<? super T> predicate;
+    private final T[] elements;
+    private final long[] tags; // one bit per slot of elements
+    private int head; // slot of the oldest element
+    private int eltSize;
+    private int filteredEltSize;
+    private int modCount;
+
+    @SuppressWarnings("unchecked")
+    public TaggedRingBuffer(int capacity, Predicate<? super T> fun) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        Objects.requireNonNull(fun);
+        this.predicate = fun;
+        this.elements = (T[]) new Object[capacity];
+        this.tags = new long[TagIndex.wordCount(capacity)];
+    }
+
+    public void add(T elt) {
+        Objects.requireNonNull(elt);
+        var tagged = predicate.test(elt);
+        var elements = this.elements;
+        int slot;
+        if (eltSize == elements.length) { // evicts the oldest element
+            slot = head;
+            if (isTagged(slot)) {
+                filteredEltSize--;
+            }
+            head = slot + 1 == elements.length ? 0 : slot + 1;
+        } else {
+            slot = slot(head, eltSize);
+            eltSize++;
+        }
+        elements[slot] = elt;
+        if (tagged) {
+            tags[slot >>> 6] |= 1L << slot;
+            filteredEltSize++;
+        } else {
+            tags[slot >>> 6] &= ~(1L << slot);
+        }
+        modCount++;
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+
+    public int size(boolean onlyTagged) {
+        if (onlyTagged) {
+            return this.filteredEltSize;
+        } else {
+            return this.eltSize;
+        }
+    }
+
+    // oldest element, or oldest tagged element
+    public Optional<T> findFirst(boolean onlyTagged) {
+        var first = onlyTagged ? nextTagged(head, 0, eltSize) : 0;
+        return first == eltSize ? Optional.empty() : Optional.of(elements[slot(head, first)]);
+    }
+
+    public void forEach(boolean onlyTagged, Consumer<? super T> fun) {
+        Objects.requireNonNull(fun);
+        var elements = this.elements;
+        var head = this.head;
+        var size = this.eltSize;
+        var expectedModCount = modCount;
+        for (var i = onlyTagged ? nextTagged(head, 0, size) : 0; i < size; i = onlyTagged ? nextTagged(head, i + 1, size) : i + 1) {
+            fun.accept(elements[slot(head, i)]);
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    // runs fun on the elements, tagged ones if onlyTagged, of the positions [from, end) with one counted loop
+    // on each side of the wrap; like the bulk traversals of java.util, checks for a modification once at the end
+    private void forEachBetween(int head, int from, int end, boolean onlyTagged, int expectedModCount, Consumer<? super T> fun) {
+        Objects.requireNonNull(fun);
+        var wrap = elements.length - head;
+        forEachSlot(head + from, head + Math.min(end, wrap), onlyTagged, fun);
+        if (end > wrap) {
+            forEachSlot(Math.max(from, wrap) - wrap, end - wrap, onlyTagged, fun);
+        }
+        if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    private void forEachSlot(int from, int end, boolean onlyTagged, Consumer<? super T> fun) {
+        var elements = this.elements;
+        var tags = this.tags;
+        if (onlyTagged) {
+            for (var slot = TagIndex.nextSet(tags, from, end); slot < end; slot = TagIndex.nextSet(tags, slot + 1, end)) {
+                fun.accept(elements[slot]);
+            }
+        } else {
+            for (var slot = from; slot < end; slot++) {
+                fun.accept(elements[slot]);
+            }
+        }
+    }
+
+    private boolean isTagged(int slot) {
+        return (tags[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    // slot of the element of position index, positions counting from the oldest element at head
+    private int slot(int head, int index) {
+        var slot = head + index;
+        return slot >= elements.length ? slot - elements.length : slot;
+    }
+
+    // position of the first tagged element in the positions [from, end), or end if there is none;
+    // positions before the wrap map to the slots [head, capacity), the others to [0, head)
+    private int nextTagged(int head, int from, int end) {
+        var wrap = elements.length - head;
+        if (from < wrap) {
+            var slotEnd = head + Math.min(end, wrap);
+            var slot = TagIndex.nextSet(tags, head + from, slotEnd);
+            if (slot < slotEnd) {
+                return slot - head;
+            }
+            from = wrap;
+        }
+        if (from >= end) {
+            return end;
+        }
+        return TagIndex.nextSet(tags, from - wrap, end - wrap) + wrap;
+    }
+
+    // number of tagged elements in the positions [from, end)
+    private int countTagged(int head, int from, int end) {
+        var wrap = elements.length - head;
+        var count = 0;
+        if (from < wrap) {
+            count += TagIndex.countSet(tags, head + from, head + Math.min(end, wrap));
+            from = wrap;
+        }
+        if (from < end) {
+            count += TagIndex.countSet(tags, from - wrap, end - wrap);
+        }
+        return count;
+    }
+
+    public Iterator<T> iterator(boolean onlyTagged) {
+
+        return new Iterator<T>() {
+            private final int head = TaggedRingBuffer.this.head;
+            private final int size = eltSize;
+            private final int expectedModCount = modCount;
+            private int next = onlyTagged ? nextTagged(head, 0, size) : 0; // position of the next element to be returned
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public T next() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                var elt = elements[slot(head, next)];
+                next = onlyTagged ? nextTagged(head, next + 1, size) : next + 1;
+                return elt;
+            }
+
+            @Override
+            public void forEachRemaining(Consumer<? super T> action) {
+                var from = next;
+                next = size;
+                forEachBetween(head, from, size, onlyTagged, expectedModCount, action);
+            }
+        };
+    }
+
+    public Stream<T> stream(boolean onlyTagged) {
+        return stream(onlyTagged, false);
+    }
+
+    public Stream<T> parallelStream(boolean onlyTagged) {
+        return stream(onlyTagged, size(onlyTagged) >= TagIndex.PARALLEL_THRESHOLD);
+    }
+
+    private Stream<T> stream(boolean onlyTagged, boolean parallel) {
+        return StreamSupport.stream(createSpliterator(head, 0, eltSize, onlyTagged ? filteredEltSize : eltSize, onlyTagged, modCount), parallel);
+    }
+
+    // covers the count elements, tagged ones if onlyTagged, of the positions [start, end)
+    private Spliterator<T> createSpliterator(int head, int start, int end, int count, boolean onlyTagged, int expectedModCount) {
+
+        return new Spliterator<T>() {
+            private int i = start;
+            private int remaining = count;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> consumer) {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (remaining == 0) {
+                    return false;
+                }
+                if (onlyTagged) {
+                    i = nextTagged(head, i, end);
+                }
+                consumer.accept(elements[slot(head, i)]);
+                i++;
+                remaining--;
+                return true;
+            }
+
+            @Override
+            public void forEachRemaining(Consumer<? super T> consumer) {
+                var from = i;
+                i = end;
+                remaining = 0;
+                forEachBetween(head, from, end, onlyTagged, expectedModCount, consumer);
+            }
+
+            @Override
+            public Spliterator<T> trySplit() {
+                var middle = (i + end) >>> 1;
+                if (middle == i || remaining < 2) {
+                    return null;
+                }
+                var half = onlyTagged ? countTagged(head, i, middle) : middle - i;
+                var spliterator = createSpliterator(head, i, middle, half, onlyTagged, expectedModCount);
+                i = middle;
+                remaining -= half;
+                return spliterator;
+            }
+
+            @Override
+            public long estimateSize() {
+                return remaining;
+            }
+
+            @Override
+            public int characteristics() {
+                return NONNULL | ORDERED | SIZED | SUBSIZED;
+            }
+        };
+    }
+}
@@ -0,0 +1,44 @@
+package fr.guihardbastien.boilerplate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BitmapTagIndexTest {
+
+    @Test
+    public void selectMatchesALinearScan() {
+        var random = new Random(0);
+        var index = new BitmapTagIndex(4);
+        var tagged = new boolean[5_000];
+        for (var i = 0; i < tagged.length; i++) {
+            tagged[i] = random.nextInt(10) == 0;
+            index.ensureCapacity(i + 1);
+            index.append(tagged[i]);
+        }
+        var rank = 0;
+        for (var i = 0; i < tagged.length; i++) {
+            if (tagged[i]) {
+                assertEquals(i, index.select(rank));
+                rank++;
+            }
+        }
+        assertEquals(rank, index.count());
+    }
+
+    @Test
+    public void nextSkipsEmptyBlocks() {
+        var index = new BitmapTagIndex(10_000);
+        for (var i = 0; i < 10_000; i++) {
+            index.append(i == 3 || i == 9_999);
+        }
+        assertAll(
+                () -> assertEquals(3, index.next(0, 10_000)),
+                () -> assertEquals(9_999, index.next(4, 10_000)),
+                () -> assertEquals(5_000, index.next(4, 5_000)),
+                () -> assertEquals(9_999, index.select(1))
+        );
+    }
+}
@@ -0,0 +1,122 @@
+package fr.guihardbastien.boilerplate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntPredicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressedTagIndexTest {
+
+    // checks every query of index against a linear scan of tagged
+    private static void assertMatches(boolean[] tagged, CompressedTagIndex index) {
+        assertEquals(tagged.length, index.size());
+        var rank = 0;
+        var next = index.next(0, tagged.length);
+        for (var i = 0; i < tagged.length; i++) {
+            assertEquals(tagged[i], index.isTagged(i));
+            if (tagged[i]) {
+                assertEquals(i, next);
+                assertEquals(i, index.select(rank));
+                next = index.next(i + 1, tagged.length);
+                rank++;
+            }
+        }
+        assertEquals(tagged.length, next);
+        assertEquals(rank, index.count());
+    }
+
+    private static boolean[] tags(int size, IntPredicate tagged) {
+        var tags = new boolean[size];
+        for (var i = 0; i < size; i++) {
+            tags[i] = tagged.test(i);
+        }
+        return tags;
+    }
+
+    private static CompressedTagIndex append(boolean[] tagged) {
+        var index = new CompressedTagIndex();
+        for (var tag : tagged) {
+            index.append(tag);
+        }
+        return index;
+    }
+
+    @Test
+    public void sparseTags() {
+        var random = new Random(0);
+        var tagged = tags(1_000_000, i -> random.nextInt(10_000) == 0);
+        var index = append(tagged);
+        assertMatches(tagged, index);
+        assertTrue(index.containerBytes() < 1_000);
+    }
+
+    @Test
+    public void denseTags() {
+        var random = new Random(0);
+        var tagged = tags(1_000_000, i -> random.nextInt(10_000) != 0);
+        var index = append(tagged);
+        assertMatches(tagged, index);
+        assertTrue(index.containerBytes() < 2_000);
+    }
+
+    @Test
+    public void mixedTags() {
+        var random = new Random(0);
+        var tagged = tags(400_000, i -> i < 65_536 ? random.nextBoolean() : i < 131_072 ? i % 100 == 0 : i < 300_000 ? i % 5_000 < 4_000 : false);
+        tagged[399_999] = true;
+        assertMatches(tagged, append(tagged));
+    }
+
+    @Test
+    public void nextSkipsEmptyContainers() {
+        var index = new CompressedTagIndex();
+        for (var i = 0; i < 1_000_000; i++) {
+            index.append(i == 3 || i == 999_999);
+        }
+        assertAll(
+                () -> assertEquals(3, index.next(0, 1_000_000)),
+                () -> assertEquals(999_999, index.next(4, 1_000_000)),
+                () -> assertEquals(500_000, index.next(4, 500_000)),
+                () -> assertEquals(999_999, index.select(1)),
+                () -> assertTrue(index.containerBytes() < 100)
+        );
+    }
+
+    @Test
+    public void appendAllMatchesAppend() {
+        var pool = new ForkJoinPool(4);
+        try {
+            var random = new Random(0);
+            var tagged = tags(1_000_000, i -> i < 500_000 ? random.nextInt(100) == 0 : random.nextInt(100) != 0);
+            var index = new CompressedTagIndex();
+            for (var i = 0; i < 1_000; i++) {
+                index.append(tagged[i]);
+            }
+            index.appendAll(100_000, i -> tagged[i], pool);
+            index.appendAll(10, i -> tagged[i], pool);
+            index.appendAll(tagged.length - 101_010, i -> tagged[i], pool);
+            assertMatches(tagged, index);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void appendAllFailureAppendsNothing() {
+        var pool = new ForkJoinPool(4);
+        try {
+            var index = new CompressedTagIndex();
+            index.append(true);
+            assertThrows(ArithmeticException.class, () -> index.appendAll(1_000_000, i -> 1 / (i - 700_000) > 0, pool));
+            assertEquals(1, index.size());
+            assertEquals(1, index.count());
+            index.append(true);
+            assertEquals(1, index.select(1));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package fr.guihardbastien.boilerplate;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentTaggedBufferTest {
+
+    @Test
+    public void addAndSize() {
+        var buffer = new ConcurrentTaggedBuffer<Integer>(i -> i % 2 == 0);
+        buffer.add(1);
+        buffer.add(2);
+        buffer.add(3);
+        buffer.add(5);
+        assertEquals(1, buffer.size(true));
+        assertEquals(4, buffer.size(false));
+    }
+
+    @Test
+    public void sequentialViews() {
+        var buffer = new ConcurrentTaggedBuffer<Integer>(i -> i % 3 == 0);
+        range(0, 100_000).forEach(buffer::add);
+        var expected = range(0, 100_000).filter(i -> i % 3 == 0).boxed().collect(toList());
+        var list = new ArrayList<Integer>();
+        buffer.forEach(true, list::add);
+        var list2 = new ArrayList<Integer>();
+        buffer.iterator(true).forEachRemaining(list2::add);
+        assertAll(
+                () -> assertEquals(expected, list),
+                () -> assertEquals(expected, list2),
+                () -> assertEquals(expected, buffer.stream(true).collect(toList())),
+                () -> assertEquals(expected, buffer.parallelStream(true).collect(toList())),
+                () -> assertEquals(33_334, buffer.stream(true).spliterator().getExactSizeIfKnown()),
+                () -> assertEquals(range(0, 100_000).boxed().collect(toList()), buffer.parallelStream(false).collect(toList())),
+                () -> assertEquals(0, buffer.findFirst(true).orElseThrow()),
+                () -> assertEquals(0, buffer.findFirst(false).orElseThrow())
+        );
+    }
+
+    @Test
+    public void emptyBuffer() {
+        var buffer = new ConcurrentTaggedBuffer<String>(s -> fail());
+        assertAll(
+                () -> assertTrue(buffer.findFirst(true).isEmpty()),
+                () -> assertTrue(buffer.findFirst(false).isEmpty()),
+                () -> assertFalse(buffer.iterator(false).hasNext()),
+                () -> assertThrows(NoSuchElementException.class, () -> buffer.iterator(true).next()),
+                () -> assertEquals(0, buffer.stream(true).count())
+        );
+    }
+
+    @Test
+    public void iteratorSATB() {
+        var buffer = new ConcurrentTaggedBuffer<Integer>(i -> i % 10 == 0);
+        buffer.add(2);
+        buffer.add(100);
+        var it = buffer.iterator(true);
+        buffer.add(200);
+        var list = new ArrayList<Integer>();
+        it.forEachRemaining(list::add);
+        assertEquals(List.of(100), list);
+    }
+
+    @Test
+    public void failingPredicateLeavesNoHole() {
+        var buffer = new ConcurrentTaggedBuffer<Integer>(i -> 10 / i > 1);
+        buffer.add(1);
+        assertThrows(ArithmeticException.class, () -> buffer.add(0));
+        buffer.add(20);
+        assertEquals(List.of(1, 20), buffer.stream(false).collect(toList()));
+        assertEquals(List.of(1), buffer.stream(true).collect(toList()));
+    }
+
+    @Test
+    public void concurrentAdds() throws InterruptedException {
+        var buffer = new ConcurrentTaggedBuffer<Integer>(i -> i % 4 == 0);
+        var threads = new ArrayList<Thread>();
+        var start = new CountDownLatch(1);
+        for (var t = 0; t < 8; t++) {
+            var base = t * 100_000;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                range(base, base + 100_000).forEach(buffer::add);
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (var thread : threads) {
+            thread.join();
+        }
+        assertEquals(800_000, buffer.size(false));
+        assertEquals(200_000, buffer.size(true));
+        assertEquals(range(0, 800_000).asLongStream().sum(), buffer.parallelStream(false).mapToLong(i -> i).sum());
+        assertEquals(range(0, 800_000).boxed().collect(toList()), buffer.stream(false).sorted().collect(toList()));
+        assertTrue(buffer.stream(true).allMatch(i -> i % 4 == 0));
+        assertEquals(200_000, buffer.stream(true).count());
+    }
+
+    @Test
+    public void racesOnBucketBoundaries() throws Exception {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var buffer = new ConcurrentTaggedBuffer<Integer>(i -> i % 2 == 0);
+        var value = 7;
+        var producers = 32;
+        var size = 0;
+        for (var bucketSize = 1 << 10; bucketSize <= 1 << 20; bucketSize <<= 1) {
+            for (; size < bucketSize - 1024 - producers / 2; size++) { // the boundary falls among the racing adds
+                buffer.add(value);
+            }
+            var barrier = new CyclicBarrier(producers);
+            var allocated = new AtomicLong();
+            var workers = new ArrayList<Thread>();
+            for (var t = 0; t < producers; t++) {
+                var element = t;
+                workers.add(new Thread(() -> {
+                    try {
+                        barrier.await();
+                    } catch (InterruptedException | BrokenBarrierException e) {
+                        throw new AssertionError(e);
+                    }
+                    var before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                    buffer.add(element);
+                    allocated.addAndGet(threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before);
+                }));
+            }
+            workers.forEach(Thread::start);
+            for (var worker : workers) {
+                worker.join();
+            }
+            size += producers;
+            var bucketBytes = (long) bucketSize * 4 + bucketSize / 8; // the element and tag arrays of the new bucket
+            assertTrue(allocated.get() < bucketBytes * 3 / 2, "allocated " + allocated + " bytes for a bucket of " + bucketBytes);
+            assertEquals(size, buffer.size(false));
+            assertEquals(size, buffer.stream(false).count());
+            assertEquals(range(0, producers).boxed().collect(toList()),
+                    buffer.stream(false).skip(size - producers).sorted().collect(toList()));
+        }
+    }
+
+    @Test
+    public void readersDuringAdds() throws InterruptedException {
+        var buffer = new ConcurrentTaggedBuffer<Integer>(i -> i % 2 == 0);
+        var done = new AtomicBoolean();
+        var writers = new ArrayList<Thread>();
+        for (var t = 0; t < 4; t++) {
+            writers.add(new Thread(() -> range(0, 200_000).forEach(buffer::add)));
+        }
+        writers.forEach(Thread::start);
+        var failure = new AtomicReference<Throwable>();
+        var reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    assertTrue(buffer.stream(false).allMatch(Objects::nonNull));
+                    assertTrue(buffer.stream(true).allMatch(i -> i % 2 == 0));
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        reader.start();
+        for (var writer : writers) {
+            writer.join();
+        }
+        done.set(true);
+        reader.join();
+        assertNull(failure.get());
+        assertEquals(800_000, buffer.stream(false).count());
+        assertEquals(400_000, buffer.stream(true).count());
+    }
+
+    @Test
+    public void preconditions() {
+        assertAll(
+                () -> assertThrows(NullPointerException.class, () -> new ConcurrentTaggedBuffer<>(null)),
+                () -> assertThrows(NullPointerException.class, () -> new ConcurrentTaggedBuffer<>(__ -> true).add(null))
+        );
+    }
+
+    @Test
+    public void snapshot() {
+        var buffer = new ConcurrentTaggedBuffer<Integer>(i -> i % 2 == 0);
+        range(0, 10).forEach(buffer::add);
+        var snapshot = buffer.snapshot();
+        range(10, 100_000).forEach(buffer::add);
+        var list = new ArrayList<Integer>();
+        snapshot.forEach(true, list::add);
+        assertAll(
+                () -> assertEquals(10, snapshot.size(false)),
+                () -> assertEquals(5, snapshot.size(true)),
+                () -> assertEquals(List.of(0, 2, 4, 6, 8), list),
+                () -> assertEquals(range(0, 10).boxed().collect(toList()), snapshot.stream(false).collect(toList())),
+                () -> assertEquals(5, snapshot.parallelStream(true).count()),
+                () -> assertEquals(0, snapshot.findFirst(true).orElseThrow()),
+                () -> assertEquals(100_000, buffer.snapshot().size(false)),
+                () -> assertEquals(50_000, buffer.snapshot().size(true))
+        );
+    }
+
+    @Test
+    public void snapshotDuringAdds() throws InterruptedException {
+        var buffer = new ConcurrentTaggedBuffer<Integer>(i -> i % 2 == 0);
+        var writers = new ArrayList<Thread>();
+        for (var t = 0; t < 4; t++) {
+            writers.add(new Thread(() -> range(0, 200_000).forEach(buffer::add)));
+        }
+        writers.forEach(Thread::start);
+        var snapshots = new ArrayList<ConcurrentTaggedBuffer<Integer>.Snapshot>();
+        for (var i = 0; i < 20; i++) {
+            snapshots.add(buffer.snapshot());
+        }
+        for (var writer : writers) {
+            writer.join();
+        }
+        for (var snapshot : snapshots) {
+            var size = snapshot.size(false);
+            var tagged = snapshot.size(true);
+            assertEquals(size, snapshot.stream(false).count());
+            assertEquals(size, snapshot.parallelStream(false).filter(Objects::nonNull).count());
+            assertEquals(tagged, snapshot.stream(true).filter(i -> i % 2 == 0).count());
+            assertEquals(size - tagged, snapshot.stream(false).filter(i -> i % 2 != 0).count());
+        }
+    }
+}
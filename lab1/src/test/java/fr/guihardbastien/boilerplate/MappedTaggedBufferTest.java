@@ -0,0 +1,154 @@
+package fr.guihardbastien.boilerplate;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static fr.guihardbastien.boilerplate.OffHeapTaggedBufferTest.LONG_CODEC;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedTaggedBufferTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void addAndSize() throws IOException {
+        try (var buffer = new MappedTaggedBuffer<>(directory.resolve("buffer"), LONG_CODEC, l -> l % 2 == 0)) {
+            buffer.add(1L);
+            buffer.add(2L);
+            buffer.add(3L);
+            buffer.add(5L);
+            assertEquals(1, buffer.size(true));
+            assertEquals(4, buffer.size(false));
+            assertEquals(2L, buffer.findFirst(true).orElseThrow());
+        }
+    }
+
+    @Test
+    public void reopen() throws IOException {
+        var path = directory.resolve("buffer");
+        try (var buffer = new MappedTaggedBuffer<>(path, LONG_CODEC, l -> l % 1_000 == 0)) {
+            range(0, 200_000).forEach(i -> buffer.add((long) i));
+            buffer.force();
+        }
+        try (var buffer = new MappedTaggedBuffer<>(path, LONG_CODEC, l -> fail())) {
+            assertEquals(200, buffer.size(true));
+            assertEquals(200_000, buffer.size(false));
+            assertEquals(range(0, 200).mapToObj(i -> i * 1_000L).collect(toList()), buffer.stream(true).collect(toList()));
+            var list = new ArrayList<Long>();
+            buffer.iterator(false).forEachRemaining(list::add);
+            assertEquals(range(0, 200_000).mapToObj(i -> (long) i).collect(toList()), list);
+        }
+    }
+
+    @Test
+    public void appendAfterReopen() throws IOException {
+        var path = directory.resolve("buffer");
+        try (var buffer = new MappedTaggedBuffer<>(path, LONG_CODEC, l -> l % 2 == 0)) {
+            range(0, 70_000).forEach(i -> buffer.add((long) i));
+        }
+        try (var buffer = new MappedTaggedBuffer<>(path, LONG_CODEC, l -> l % 2 == 0)) {
+            range(70_000, 140_000).forEach(i -> buffer.add((long) i));
+        }
+        try (var buffer = new MappedTaggedBuffer<>(path, LONG_CODEC, l -> l % 2 == 0)) {
+            assertEquals(70_000, buffer.size(true));
+            assertEquals(range(0, 140_000).filter(i -> i % 2 == 0).asLongStream().sum(),
+                    buffer.parallelStream(true).mapToLong(l -> l).sum());
+        }
+    }
+
+    @Test
+    public void countsReachTheFileOnForce() throws IOException {
+        var path = directory.resolve("buffer");
+        try (var buffer = new MappedTaggedBuffer<>(path, LONG_CODEC, l -> l % 2 == 0)) {
+            range(0, 10).forEach(i -> buffer.add((long) i));
+            assertEquals(0, headerCount(path));
+            buffer.force();
+            assertEquals(10, headerCount(path));
+            buffer.add(10L);
+            assertEquals(10, headerCount(path));
+        }
+        assertEquals(11, headerCount(path));
+    }
+
+    @Test
+    public void reopenAfterUnforcedAppend() throws IOException {
+        var path = directory.resolve("buffer");
+        try (var crashed = new MappedTaggedBuffer<>(path, LONG_CODEC, l -> l >= 5)) {
+            range(0, 5).forEach(i -> crashed.add((long) i));
+            crashed.force();
+            range(5, 10).forEach(i -> crashed.add((long) i)); // tagged in the file, never counted in its header
+            try (var buffer = new MappedTaggedBuffer<>(path, LONG_CODEC, l -> false)) {
+                range(10, 15).forEach(i -> buffer.add((long) i));
+                var list = new ArrayList<Long>();
+                buffer.forEach(true, list::add);
+                assertAll(
+                        () -> assertEquals(0, buffer.size(true)),
+                        () -> assertEquals(List.of(), list),
+                        () -> assertEquals(List.of(), buffer.stream(true).collect(toList())),
+                        () -> assertTrue(buffer.findFirst(true).isEmpty())
+                );
+            }
+        }
+    }
+
+    // element count stored in the header of the file
+    private static int headerCount(Path path) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(path), 12, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+
+    @Test
+    public void closedBuffer() throws IOException {
+        var buffer = new MappedTaggedBuffer<>(directory.resolve("buffer"), LONG_CODEC, l -> true);
+        buffer.add(1L);
+        buffer.close();
+        assertAll(
+                () -> assertThrows(IllegalStateException.class, () -> buffer.add(2L)),
+                () -> assertThrows(IllegalStateException.class, buffer::force),
+                () -> assertThrows(IllegalStateException.class, () -> buffer.forEach(false, __ -> {
+                }))
+        );
+    }
+
+    @Test
+    public void invalidFiles() throws IOException {
+        var notABuffer = directory.resolve("text");
+        Files.writeString(notABuffer, "hello");
+        var path = directory.resolve("buffer");
+        try (var buffer = new MappedTaggedBuffer<>(path, LONG_CODEC, l -> true)) {
+            buffer.add(1L);
+        }
+        var intCodec = new RecordCodec<Integer>() {
+            @Override
+            public int recordSize() {
+                return Integer.BYTES;
+            }
+
+            @Override
+            public void write(ByteBuffer buffer, int offset, Integer value) {
+                buffer.putInt(offset, value);
+            }
+
+            @Override
+            public Integer read(ByteBuffer buffer, int offset) {
+                return buffer.getInt(offset);
+            }
+        };
+        assertAll(
+                () -> assertThrows(IOException.class, () -> new MappedTaggedBuffer<>(notABuffer, LONG_CODEC, l -> true)),
+                () -> assertThrows(IllegalArgumentException.class, () -> new MappedTaggedBuffer<>(path, intCodec, i -> true))
+        );
+        try (var buffer = new MappedTaggedBuffer<>(path, LONG_CODEC, l -> true)) {
+            assertEquals(List.of(1L), buffer.stream(false).collect(toList()));
+        }
+    }
+}
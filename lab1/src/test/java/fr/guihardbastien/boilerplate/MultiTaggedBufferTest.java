@@ -0,0 +1,156 @@
+package fr.guihardbastien.boilerplate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MultiTaggedBufferTest {
+    private static final int EVEN = 0;
+    private static final int THREE = 1;
+    private static final int SMALL = 2;
+
+    private static MultiTaggedBuffer<Integer> buffer(int size) {
+        var buffer = new MultiTaggedBuffer<Integer>(List.of(i -> i % 2 == 0, i -> i % 3 == 0, i -> i < 1_000));
+        range(0, size).forEach(buffer::add);
+        return buffer;
+    }
+
+    private static List<Integer> expected(int size, Predicate<Integer> filter) {
+        return range(0, size).boxed().filter(filter).collect(toList());
+    }
+
+    @Test
+    public void addAndSize() {
+        var buffer = buffer(100_000);
+        assertAll(
+                () -> assertEquals(3, buffer.tagCount()),
+                () -> assertEquals(100_000, buffer.size()),
+                () -> assertEquals(50_000, buffer.size(EVEN)),
+                () -> assertEquals(33_334, buffer.size(THREE)),
+                () -> assertEquals(1_000, buffer.size(SMALL)),
+                () -> assertThrows(IndexOutOfBoundsException.class, () -> buffer.size(3))
+        );
+    }
+
+    @Test
+    public void tagMask() {
+        var buffer = buffer(100_000);
+        var list = new ArrayList<Integer>();
+        buffer.forEach(1L << EVEN | 1L << THREE, list::add);
+        var list2 = new ArrayList<Integer>();
+        buffer.iterator(1L << EVEN | 1L << THREE).forEachRemaining(list2::add);
+        var expected = expected(100_000, i -> i % 6 == 0);
+        assertAll(
+                () -> assertEquals(expected, list),
+                () -> assertEquals(expected, list2),
+                () -> assertEquals(expected, buffer.stream(1L << EVEN | 1L << THREE).collect(toList())),
+                () -> assertEquals(expected, buffer.parallelStream(1L << EVEN | 1L << THREE).collect(toList())),
+                () -> assertEquals(expected(100_000, i -> true), buffer.stream(0).collect(toList())),
+                () -> assertEquals(expected(1_000, i -> i % 2 == 0), buffer.stream(1L << EVEN | 1L << SMALL).collect(toList())),
+                () -> assertThrows(IllegalArgumentException.class, () -> buffer.stream(1L << 3))
+        );
+    }
+
+    @Test
+    public void combinations() {
+        var buffer = buffer(100_000);
+        var even = buffer.tag(EVEN);
+        var three = buffer.tag(THREE);
+        var small = buffer.tag(SMALL);
+        assertAll(
+                () -> assertEquals(expected(100_000, i -> i % 2 == 0 || i % 3 == 0), even.or(three).stream().collect(toList())),
+                () -> assertEquals(expected(100_000, i -> i % 2 == 0 && i % 3 != 0), even.andNot(three).stream().collect(toList())),
+                () -> assertEquals(expected(1_000, i -> i % 6 == 0), even.and(three).and(small).stream().collect(toList())),
+                () -> assertEquals(66_667, even.or(three).size()),
+                () -> assertEquals(expected(100_000, i -> i % 2 == 0 || i % 3 == 0), buffer.anyOf(1L << EVEN | 1L << THREE).parallelStream().collect(toList())),
+                () -> assertEquals(0, buffer.anyOf(0).size()),
+                () -> assertEquals(100_000, buffer.allOf(0).size()),
+                () -> assertEquals(expected(100_000, i -> i % 2 != 0), buffer.allOf(0).andNot(even).stream().collect(toList()))
+        );
+    }
+
+    @Test
+    public void combinationsWithAnEmptyMask() {
+        var buffer = buffer(10);
+        var even = buffer.tag(EVEN);
+        var none = buffer.anyOf(0);
+        assertAll(
+                () -> assertEquals(List.of(0, 2, 4, 6, 8), even.or(none).stream().collect(toList())),
+                () -> assertEquals(List.of(0, 2, 4, 6, 8), even.andNot(none).stream().collect(toList())),
+                () -> assertEquals(5, none.or(even).size()),
+                () -> assertEquals(0, even.and(none).size()),
+                () -> assertEquals(List.of(), none.stream().collect(toList()))
+        );
+    }
+
+    @Test
+    public void selectionIsASnapshot() {
+        var buffer = buffer(100);
+        var even = buffer.tag(EVEN);
+        range(100, 1_000).forEach(buffer::add);
+        var three = buffer.tag(THREE);
+        assertAll(
+                () -> assertEquals(50, even.size()),
+                () -> assertEquals(expected(100, i -> i % 2 == 0), even.stream().collect(toList())),
+                () -> assertEquals(expected(100, i -> i % 6 == 0), even.and(three).stream().collect(toList())),
+                () -> assertEquals(expected(100, i -> i % 3 == 0 && i % 2 != 0), three.andNot(even).stream().collect(toList())),
+                () -> assertEquals(334, three.size())
+        );
+    }
+
+    @Test
+    public void failingPredicateAddsNothing() {
+        var buffer = new MultiTaggedBuffer<Integer>(List.of(i -> true, i -> 10 / i > 0));
+        buffer.add(1);
+        assertThrows(ArithmeticException.class, () -> buffer.add(0));
+        assertEquals(1, buffer.size());
+        assertEquals(1, buffer.size(0));
+        assertEquals(List.of(1), buffer.stream(0).collect(toList()));
+    }
+
+    @Test
+    public void emptyBuffer() {
+        var buffer = buffer(0);
+        assertAll(
+                () -> assertEquals(0, buffer.size(EVEN)),
+                () -> assertFalse(buffer.iterator(1L << EVEN).hasNext()),
+                () -> assertThrows(NoSuchElementException.class, () -> buffer.iterator(0).next()),
+                () -> assertEquals(0, buffer.stream(0).count()),
+                () -> assertEquals(0, buffer.tag(EVEN).or(buffer.tag(THREE)).size())
+        );
+    }
+
+    @Test
+    public void preconditions() {
+        assertAll(
+                () -> assertThrows(NullPointerException.class, () -> new MultiTaggedBuffer<Integer>(null)),
+                () -> assertThrows(IllegalArgumentException.class, () -> new MultiTaggedBuffer<Integer>(List.of())),
+                () -> assertThrows(IllegalArgumentException.class, () -> new MultiTaggedBuffer<Integer>(Collections.nCopies(65, i -> true))),
+                () -> assertThrows(NullPointerException.class, () -> buffer(0).add(null)),
+                () -> assertThrows(NullPointerException.class, () -> buffer(0).tag(EVEN).and(null))
+        );
+    }
+
+    @Test
+    public void sixtyFourTags() {
+        var funs = new ArrayList<Predicate<Integer>>();
+        for (var k = 0; k < 64; k++) {
+            var bit = k;
+            funs.add(i -> (i & (1L << bit)) != 0);
+        }
+        var buffer = new MultiTaggedBuffer<Integer>(funs);
+        range(0, 1_000).forEach(buffer::add);
+        assertEquals(List.of(), buffer.stream(-1L).collect(toList()));
+        assertEquals(List.of(1, 3, 5, 7, 9), buffer.stream(1L).limit(5).collect(toList()));
+        assertEquals(500, buffer.size(0));
+        assertEquals(0, buffer.size(63));
+    }
+}
@@ -0,0 +1,130 @@
+package fr.guihardbastien.boilerplate;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapTaggedBufferTest {
+    static final RecordCodec<Long> LONG_CODEC = new RecordCodec<>() {
+        @Override
+        public int recordSize() {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, int offset, Long value) {
+            buffer.putLong(offset, value);
+        }
+
+        @Override
+        public Long read(ByteBuffer buffer, int offset) {
+            return buffer.getLong(offset);
+        }
+    };
+
+    @Test
+    public void addAndSize() {
+        try (var buffer = new OffHeapTaggedBuffer<>(LONG_CODEC, l -> l % 2 == 0)) {
+            buffer.add(1L);
+            buffer.add(2L);
+            buffer.add(3L);
+            buffer.add(5L);
+            assertEquals(1, buffer.size(true));
+            assertEquals(4, buffer.size(false));
+        }
+    }
+
+    @Test
+    public void findFirst() {
+        try (var buffer = new OffHeapTaggedBuffer<>(LONG_CODEC, l -> l > 100_000)) {
+            assertTrue(buffer.findFirst(false).isEmpty());
+            range(0, 200_000).forEach(i -> buffer.add((long) i));
+            assertEquals(100_001L, buffer.findFirst(true).orElseThrow());
+            assertEquals(0L, buffer.findFirst(false).orElseThrow());
+        }
+    }
+
+    @Test
+    public void forEachAcrossChunks() {
+        try (var buffer = new OffHeapTaggedBuffer<>(LONG_CODEC, l -> l % 1_000 == 0)) {
+            range(0, 300_000).forEach(i -> buffer.add((long) i));
+            var list = new ArrayList<Long>();
+            buffer.forEach(true, list::add);
+            assertEquals(range(0, 300).mapToObj(i -> i * 1_000L).collect(toList()), list);
+            var count = new long[1];
+            buffer.forEach(false, l -> assertEquals(count[0]++, l));
+            assertEquals(300_000, count[0]);
+        }
+    }
+
+    @Test
+    public void iteratorSATB() {
+        try (var buffer = new OffHeapTaggedBuffer<>(LONG_CODEC, l -> l % 10 == 0)) {
+            buffer.add(2L);
+            buffer.add(100L);
+            var it = buffer.iterator(true);
+            buffer.add(200L);
+            var list = new ArrayList<Long>();
+            it.forEachRemaining(list::add);
+            assertEquals(List.of(100L), list);
+        }
+    }
+
+    @Test
+    public void streamSplitsAtMedianTaggedElement() {
+        try (var buffer = new OffHeapTaggedBuffer<>(LONG_CODEC, l -> l >= 150_000)) {
+            range(0, 200_000).forEach(i -> buffer.add((long) i));
+            var spliterator = buffer.stream(true).spliterator();
+            assertEquals(50_000, spliterator.getExactSizeIfKnown());
+            var prefix = spliterator.trySplit();
+            assertEquals(25_000, prefix.estimateSize());
+            assertEquals(25_000, spliterator.estimateSize());
+            var first = new long[1];
+            prefix.tryAdvance(l -> first[0] = l);
+            var second = new long[1];
+            spliterator.tryAdvance(l -> second[0] = l);
+            assertEquals(150_000L, first[0]);
+            assertEquals(175_000L, second[0]);
+        }
+    }
+
+    @Test
+    public void parallelStream() {
+        try (var buffer = new OffHeapTaggedBuffer<>(LONG_CODEC, l -> l % 3 == 0)) {
+            range(0, 500_000).forEach(i -> buffer.add((long) i));
+            assertEquals(range(0, 500_000).filter(i -> i % 3 == 0).asLongStream().sum(),
+                    buffer.parallelStream(true).mapToLong(l -> l).sum());
+            assertEquals(range(0, 500_000).asLongStream().boxed().collect(toList()),
+                    buffer.parallelStream(false).collect(toList()));
+        }
+    }
+
+    @Test
+    public void closedBuffer() {
+        var buffer = new OffHeapTaggedBuffer<>(LONG_CODEC, l -> true);
+        buffer.add(1L);
+        var it = buffer.iterator(false);
+        buffer.close();
+        buffer.close();
+        assertAll(
+                () -> assertThrows(IllegalStateException.class, () -> buffer.add(2L)),
+                () -> assertThrows(IllegalStateException.class, () -> buffer.findFirst(true)),
+                () -> assertThrows(IllegalStateException.class, it::next)
+        );
+    }
+
+    @Test
+    public void preconditions() {
+        assertAll(
+                () -> assertThrows(NullPointerException.class, () -> new OffHeapTaggedBuffer<>(null, __ -> true)),
+                () -> assertThrows(NullPointerException.class, () -> new OffHeapTaggedBuffer<>(LONG_CODEC, null)),
+                () -> assertThrows(NullPointerException.class, () -> new OffHeapTaggedBuffer<>(LONG_CODEC, __ -> true).add(null))
+        );
+    }
+}
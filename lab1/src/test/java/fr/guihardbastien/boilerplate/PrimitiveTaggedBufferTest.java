@@ -0,0 +1,280 @@
+package fr.guihardbastien.boilerplate;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.function.DoublePredicate;
+
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrimitiveTaggedBufferTest {
+
+    @Nested
+    class IntBuffer {
+
+        @Test
+        @Tag("Int")
+        public void addAndSize() {
+            var buffer = new IntTaggedBuffer(i -> i % 2 == 0);
+            buffer.add(1);
+            buffer.add(2);
+            buffer.add(3);
+            buffer.add(5);
+            assertEquals(1, buffer.size(true));
+            assertEquals(4, buffer.size(false));
+        }
+
+        @Test
+        @Tag("Int")
+        public void find() {
+            var buffer = new IntTaggedBuffer(i -> i % 2 == 0);
+            assertTrue(buffer.findFirst(false).isEmpty());
+            range(1, 100).forEach(buffer::add);
+            assertAll(
+                    () -> assertEquals(2, buffer.findFirst(true).orElseThrow()),
+                    () -> assertEquals(1, buffer.findFirst(false).orElseThrow()),
+                    () -> assertEquals(98, buffer.findLast(true).orElseThrow()),
+                    () -> assertEquals(99, buffer.findLast(false).orElseThrow()),
+                    () -> assertEquals(22, buffer.findNth(true, 10).orElseThrow()),
+                    () -> assertTrue(buffer.findNth(true, 49).isEmpty())
+            );
+        }
+
+        @Test
+        @Tag("Int")
+        public void forEachAndIterator() {
+            var buffer = new IntTaggedBuffer(i -> i % 3 == 0);
+            range(0, 10_000).forEach(buffer::add);
+            var list = new ArrayList<Integer>();
+            buffer.forEach(true, list::add);
+            var list2 = new ArrayList<Integer>();
+            buffer.iterator(true).forEachRemaining((int i) -> list2.add(i));
+            var expected = Arrays.asList(range(0, 10_000).filter(i -> i % 3 == 0).boxed().toArray(Integer[]::new));
+            assertEquals(expected, list);
+            assertEquals(expected, list2);
+        }
+
+        @Test
+        @Tag("Int")
+        public void iteratorSATB() {
+            var buffer = new IntTaggedBuffer(i -> i % 10 == 0);
+            buffer.add(2);
+            buffer.add(100);
+            var it = buffer.iterator(true);
+            range(0, 100).forEach(buffer::add);
+            assertEquals(100, it.nextInt());
+            assertFalse(it.hasNext());
+            assertThrows(NoSuchElementException.class, it::nextInt);
+        }
+
+        @Test
+        @Tag("Int")
+        public void stream() {
+            var buffer = new IntTaggedBuffer(i -> i % 100 == 0);
+            range(0, 1_000_000).forEach(buffer::add);
+            assertAll(
+                    () -> assertEquals(4_999_500_000L, buffer.stream(true).asLongStream().sum()),
+                    () -> assertEquals(499_999_500_000L, buffer.parallelStream(false).asLongStream().sum()),
+                    () -> assertEquals(10_000, buffer.stream(true).spliterator().getExactSizeIfKnown()),
+                    () -> assertArrayEquals(new int[]{0, 100}, buffer.stream(true).limit(2).toArray())
+            );
+        }
+
+        @Test
+        @Tag("Int")
+        public void structuredPredicates() {
+            var values = new java.util.Random(0).ints(10_000).toArray();
+            values[0] = Integer.MIN_VALUE;
+            values[1] = Integer.MAX_VALUE;
+            values[2] = -7;
+            values[3] = 0;
+            var predicates = List.of(IntTagPredicate.lessThan(0), IntTagPredicate.lessThan(Integer.MIN_VALUE),
+                    IntTagPredicate.greaterThan(1 << 30), IntTagPredicate.greaterThan(Integer.MAX_VALUE),
+                    IntTagPredicate.equalTo(-7), IntTagPredicate.between(-1 << 20, 1 << 29), IntTagPredicate.between(5, 4),
+                    IntTagPredicate.between(Integer.MIN_VALUE, Integer.MAX_VALUE), IntTagPredicate.modulo(2, 0),
+                    IntTagPredicate.modulo(7, -3), IntTagPredicate.modulo(-1, 0), IntTagPredicate.bitmask(0xF0, 0x30));
+            for (var predicate : predicates) {
+                var bulk = new IntTaggedBuffer(predicate);
+                bulk.add(values[0]);
+                bulk.addAll(values, 1, 100); // unaligned on the words of the bitmap
+                bulk.addAll(values, 100, 10_000);
+                var scalar = new IntTaggedBuffer(predicate::test);
+                scalar.addAll(values, 0, 10_000);
+                var expected = Arrays.stream(values).filter(predicate::test).toArray();
+                assertArrayEquals(expected, bulk.stream(true).toArray(), predicate.toString());
+                assertArrayEquals(expected, scalar.stream(true).toArray(), predicate.toString());
+                assertArrayEquals(values, bulk.stream(false).toArray());
+                if (expected.length != 0) {
+                    assertEquals(expected[expected.length - 1], bulk.findLast(true).orElseThrow());
+                    assertEquals(expected[expected.length / 2], bulk.findNth(true, expected.length / 2).orElseThrow());
+                }
+            }
+        }
+
+        @Test
+        @Tag("Int")
+        public void addAllIsAtomic() {
+            var buffer = new IntTaggedBuffer(i -> {
+                if (i == 500) {
+                    throw new IllegalStateException();
+                }
+                return i % 2 == 0;
+            });
+            buffer.addAll(range(0, 100).toArray(), 0, 100);
+            assertThrows(IllegalStateException.class, () -> buffer.addAll(range(100, 1_000).toArray(), 0, 900));
+            assertEquals(100, buffer.size(false));
+            assertEquals(50, buffer.size(true));
+            assertThrows(IndexOutOfBoundsException.class, () -> buffer.addAll(new int[3], 2, 4));
+            assertThrows(IllegalArgumentException.class, () -> IntTagPredicate.modulo(0, 0));
+        }
+    }
+
+    @Nested
+    class LongBuffer {
+
+        @Test
+        @Tag("Long")
+        public void addAndStream() {
+            var buffer = new LongTaggedBuffer(l -> l > Integer.MAX_VALUE);
+            buffer.add(1L);
+            buffer.add(1L << 40);
+            buffer.add(3L);
+            buffer.add(1L << 41);
+            assertEquals(2, buffer.size(true));
+            assertArrayEquals(new long[]{1L << 40, 1L << 41}, buffer.stream(true).toArray());
+            assertArrayEquals(new long[]{1L, 1L << 40, 3L, 1L << 41}, buffer.stream(false).toArray());
+        }
+
+        @Test
+        @Tag("Long")
+        public void iterator() {
+            var buffer = new LongTaggedBuffer(l -> l % 2 == 1);
+            range(0, 1_000).forEach(buffer::add);
+            var it = buffer.iterator(true);
+            var sum = 0L;
+            while (it.hasNext()) {
+                sum += it.nextLong();
+            }
+            assertEquals(250_000L, sum);
+        }
+
+        @Test
+        @Tag("Long")
+        public void structuredPredicates() {
+            var values = new java.util.Random(0).longs(10_000).toArray();
+            values[0] = Long.MIN_VALUE;
+            values[1] = Long.MAX_VALUE;
+            values[2] = -7;
+            values[3] = 0;
+            var predicates = List.of(LongTagPredicate.lessThan(0), LongTagPredicate.lessThan(Long.MIN_VALUE),
+                    LongTagPredicate.greaterThan(1L << 62), LongTagPredicate.greaterThan(Long.MAX_VALUE),
+                    LongTagPredicate.equalTo(-7), LongTagPredicate.between(-1L << 60, 1L << 61), LongTagPredicate.between(5, 4),
+                    LongTagPredicate.between(Long.MIN_VALUE, Long.MAX_VALUE), LongTagPredicate.between(Long.MIN_VALUE, -1),
+                    LongTagPredicate.modulo(2, 0), LongTagPredicate.modulo(7, -3), LongTagPredicate.bitmask(0xF0, 0x30));
+            for (var predicate : predicates) {
+                var bulk = new LongTaggedBuffer(predicate);
+                bulk.add(values[0]);
+                bulk.addAll(values, 1, 100); // unaligned on the words of the bitmap
+                bulk.addAll(values, 100, 10_000);
+                var scalar = new LongTaggedBuffer(predicate::test);
+                scalar.addAll(values, 0, 10_000);
+                var expected = Arrays.stream(values).filter(predicate::test).toArray();
+                assertArrayEquals(expected, bulk.stream(true).toArray(), predicate.toString());
+                assertArrayEquals(expected, scalar.stream(true).toArray(), predicate.toString());
+                assertArrayEquals(values, bulk.stream(false).toArray());
+            }
+        }
+    }
+
+    @Nested
+    class DoubleBuffer {
+
+        @Test
+        @Tag("Double")
+        public void addAndStream() {
+            var buffer = new DoubleTaggedBuffer(d -> d >= 0.5);
+            buffer.add(0.25);
+            buffer.add(0.75);
+            buffer.add(1.5);
+            assertEquals(2, buffer.size(true));
+            assertEquals(2.25, buffer.stream(true).sum());
+            assertEquals(0.25, buffer.findFirst(false).orElseThrow());
+            assertEquals(0.75, buffer.findFirst(true).orElseThrow());
+        }
+
+        @Test
+        @Tag("Double")
+        public void forEach() {
+            var buffer = new DoubleTaggedBuffer(d -> d < 0);
+            range(0, 100).forEach(i -> buffer.add(i % 2 == 0 ? i : -i));
+            var list = new ArrayList<Double>();
+            buffer.forEach(true, list::add);
+            assertEquals(50, list.size());
+            assertEquals(-1.0, list.get(0));
+        }
+
+        @Test
+        @Tag("Double")
+        public void structuredPredicates() {
+            var values = new java.util.Random(0).doubles(10_000, -1, 1).toArray();
+            var specials = new double[]{Double.NaN, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, -0.0, 0.0,
+                    Double.MIN_VALUE, -Double.MIN_VALUE, 0.5, Math.nextUp(0.5), Math.nextDown(0.5)};
+            System.arraycopy(specials, 0, values, 0, specials.length);
+            var predicates = List.<Map.Entry<DoubleTagPredicate, DoublePredicate>>of(
+                    Map.entry(DoubleTagPredicate.lessThan(0.0), d -> d < 0.0),
+                    Map.entry(DoubleTagPredicate.lessThan(Double.NEGATIVE_INFINITY), d -> d < Double.NEGATIVE_INFINITY),
+                    Map.entry(DoubleTagPredicate.lessThan(Double.NaN), d -> d < Double.NaN),
+                    Map.entry(DoubleTagPredicate.atMost(-0.0), d -> d <= -0.0),
+                    Map.entry(DoubleTagPredicate.greaterThan(0.5), d -> d > 0.5),
+                    Map.entry(DoubleTagPredicate.greaterThan(Double.POSITIVE_INFINITY), d -> d > Double.POSITIVE_INFINITY),
+                    Map.entry(DoubleTagPredicate.greaterThan(-0.0), d -> d > -0.0),
+                    Map.entry(DoubleTagPredicate.atLeast(0.5), d -> d >= 0.5),
+                    Map.entry(DoubleTagPredicate.equalTo(0.0), d -> d == 0.0),
+                    Map.entry(DoubleTagPredicate.between(-0.25, 0.25), d -> d >= -0.25 && d <= 0.25),
+                    Map.entry(DoubleTagPredicate.between(0.25, -0.25), d -> false),
+                    Map.entry(DoubleTagPredicate.between(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY), d -> !Double.isNaN(d)));
+            for (var entry : predicates) {
+                var predicate = entry.getKey();
+                var bulk = new DoubleTaggedBuffer(predicate);
+                bulk.add(values[0]);
+                bulk.addAll(values, 1, 100); // unaligned on the words of the bitmap
+                bulk.addAll(values, 100, 10_000);
+                var scalar = new DoubleTaggedBuffer(predicate::test);
+                scalar.addAll(values, 0, 10_000);
+                var expected = Arrays.stream(values).filter(entry.getValue()).toArray();
+                assertArrayEquals(expected, bulk.stream(true).toArray(), predicate.toString());
+                assertArrayEquals(expected, scalar.stream(true).toArray(), predicate.toString());
+                assertArrayEquals(values, bulk.stream(false).toArray());
+                if (expected.length != 0) {
+                    assertEquals(expected[expected.length - 1], bulk.findLast(true).orElseThrow());
+                    assertEquals(expected[expected.length / 2], bulk.findNth(true, expected.length / 2).orElseThrow());
+                }
+            }
+        }
+
+        @Test
+        @Tag("Double")
+        public void addAllIsAtomic() {
+            var buffer = new DoubleTaggedBuffer(d -> {
+                if (d == 500) {
+                    throw new IllegalStateException();
+                }
+                return d < 50;
+            });
+            buffer.addAll(range(0, 100).asDoubleStream().toArray(), 0, 100);
+            assertThrows(IllegalStateException.class, () -> buffer.addAll(range(100, 1_000).asDoubleStream().toArray(), 0, 900));
+            assertEquals(100, buffer.size(false));
+            assertEquals(50, buffer.size(true));
+            assertThrows(IndexOutOfBoundsException.class, () -> buffer.addAll(new double[3], 2, 4));
+        }
+
+        @Test
+        @Tag("Double")
+        public void preconditions() {
+            assertThrows(NullPointerException.class, () -> new DoubleTaggedBuffer(null));
+        }
+    }
+}
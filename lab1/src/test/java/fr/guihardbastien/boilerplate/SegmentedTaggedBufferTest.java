@@ -0,0 +1,108 @@
+package fr.guihardbastien.boilerplate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SegmentedTaggedBufferTest {
+
+    @Test
+    public void addAndSize() {
+        var buffer = new SegmentedTaggedBuffer<Integer>(i -> i % 2 == 0);
+        buffer.add(1);
+        buffer.add(2);
+        buffer.add(3);
+        buffer.add(5);
+        assertEquals(1, buffer.size(true));
+        assertEquals(4, buffer.size(false));
+    }
+
+    @Test
+    public void views() {
+        var buffer = new SegmentedTaggedBuffer<Integer>(64, i -> i % 3 == 0 || (i > 10_000 && i < 20_000 && i % 1_000 == 1));
+        range(0, 100_000).forEach(buffer::add);
+        var expected = range(0, 100_000).filter(i -> i % 3 == 0 || (i > 10_000 && i < 20_000 && i % 1_000 == 1)).boxed().collect(toList());
+        var list = new ArrayList<Integer>();
+        buffer.forEach(true, list::add);
+        var list2 = new ArrayList<Integer>();
+        buffer.iterator(true).forEachRemaining(list2::add);
+        assertAll(
+                () -> assertEquals(expected.size(), buffer.size(true)),
+                () -> assertEquals(expected, list),
+                () -> assertEquals(expected, list2),
+                () -> assertEquals(expected, buffer.stream(true).collect(toList())),
+                () -> assertEquals(expected, buffer.parallelStream(true).collect(toList())),
+                () -> assertEquals(expected.size(), buffer.stream(true).spliterator().getExactSizeIfKnown()),
+                () -> assertEquals(range(0, 100_000).boxed().collect(toList()), buffer.parallelStream(false).collect(toList())),
+                () -> assertEquals(0, buffer.findFirst(true).orElseThrow())
+        );
+    }
+
+    @Test
+    public void sparseSegments() {
+        var buffer = new SegmentedTaggedBuffer<Integer>(1_024, i -> i == 5 || i == 77_777 || i == 99_999);
+        range(0, 100_000).forEach(buffer::add);
+        var stream = buffer.parallelStream(true);
+        range(100_000, 200_000).forEach(buffer::add);
+        assertAll(
+                () -> assertEquals(List.of(5, 77_777, 99_999), stream.collect(toList())),
+                () -> assertEquals(List.of(5, 77_777, 99_999), buffer.stream(true).collect(toList())),
+                () -> assertEquals(5, buffer.findFirst(true).orElseThrow()),
+                () -> assertEquals(200_000, buffer.stream(false).count())
+        );
+    }
+
+    @Test
+    public void bulkTraversals() {
+        var buffer = new SegmentedTaggedBuffer<Integer>(128, i -> i % 5 == 0 || (i > 1_000 && i < 1_200));
+        range(0, 10_000).forEach(buffer::add);
+        var expected = range(0, 10_000).filter(i -> i % 5 == 0 || (i > 1_000 && i < 1_200)).boxed().collect(toList());
+        var iterator = buffer.iterator(true);
+        var list = new ArrayList<Integer>();
+        list.add(iterator.next());
+        iterator.forEachRemaining(list::add);
+        assertEquals(expected, list);
+        assertFalse(iterator.hasNext());
+        var spliterator = buffer.stream(true).spliterator();
+        var prefix = spliterator.trySplit();
+        var list2 = new ArrayList<Integer>();
+        prefix.tryAdvance(list2::add);
+        prefix.forEachRemaining(list2::add);
+        spliterator.forEachRemaining(list2::add);
+        assertEquals(expected, list2);
+        var all = new ArrayList<Integer>();
+        var spliterator2 = buffer.stream(false).spliterator();
+        spliterator2.tryAdvance(all::add);
+        spliterator2.forEachRemaining(all::add);
+        assertEquals(range(0, 10_000).boxed().collect(toList()), all);
+        assertEquals(expected.size(), buffer.parallelStream(true).toArray().length);
+    }
+
+    @Test
+    public void emptyBuffer() {
+        var buffer = new SegmentedTaggedBuffer<String>(s -> fail());
+        assertAll(
+                () -> assertTrue(buffer.findFirst(true).isEmpty()),
+                () -> assertTrue(buffer.findFirst(false).isEmpty()),
+                () -> assertFalse(buffer.iterator(false).hasNext()),
+                () -> assertThrows(NoSuchElementException.class, () -> buffer.iterator(true).next()),
+                () -> assertEquals(0, buffer.stream(true).count())
+        );
+    }
+
+    @Test
+    public void preconditions() {
+        assertAll(
+                () -> assertThrows(IllegalArgumentException.class, () -> new SegmentedTaggedBuffer<Integer>(32, i -> true)),
+                () -> assertThrows(IllegalArgumentException.class, () -> new SegmentedTaggedBuffer<Integer>(100, i -> true)),
+                () -> assertThrows(NullPointerException.class, () -> new SegmentedTaggedBuffer<Integer>(null)),
+                () -> assertThrows(NullPointerException.class, () -> new SegmentedTaggedBuffer<Integer>(i -> true).add(null))
+        );
+    }
+}
@@ -0,0 +1,56 @@
+package fr.guihardbastien.boilerplate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TagIndexTest {
+
+    @Test
+    public void wordScansMatchALinearScan() {
+        var random = new Random(0);
+        var words = new long[8];
+        for (var w = 0; w < words.length; w++) {
+            words[w] = random.nextInt(3) == 0 ? 0 : random.nextLong() & random.nextLong();
+        }
+        var slots = words.length << 6;
+        for (var from = 0; from <= slots; from += 7) {
+            for (var end = from; end <= slots; end += 13) {
+                var nextSet = end;
+                var nextClear = end;
+                var count = 0;
+                for (var i = end - 1; i >= from; i--) {
+                    if ((words[i >>> 6] & (1L << i)) != 0) {
+                        nextSet = i;
+                        count++;
+                    } else {
+                        nextClear = i;
+                    }
+                }
+                assertEquals(nextSet, TagIndex.nextSet(words, from, end));
+                assertEquals(nextClear, TagIndex.nextClear(words, from, end));
+                assertEquals(count, TagIndex.countSet(words, from, end));
+            }
+        }
+        for (int i = 0, k = 0; i < slots; i++) {
+            if ((words[i >>> 6] & (1L << i)) != 0) {
+                assertEquals(i, TagIndex.selectSet(words, 0, k));
+                assertEquals(i, TagIndex.selectSet(w -> words[w], 0, k));
+                k++;
+            }
+        }
+    }
+
+    @Test
+    public void emptyRanges() {
+        var words = new long[]{-1L};
+        assertAll(
+                () -> assertEquals(5, TagIndex.nextSet(words, 5, 5)),
+                () -> assertEquals(64, TagIndex.nextClear(words, 0, 64)),
+                () -> assertEquals(0, TagIndex.countSet(words, 64, 64)),
+                () -> assertEquals(0, TagIndex.countSet(new long[0], 0, 0))
+        );
+    }
+}
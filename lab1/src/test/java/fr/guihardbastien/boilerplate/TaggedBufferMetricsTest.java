@@ -0,0 +1,136 @@
+package fr.guihardbastien.boilerplate;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.List;
+
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// The default test run has metrics disabled, the metrics-test execution runs this class again with them enabled.
+// The counters are shared by all the buffers of the JVM and tests may run concurrently,
+// so these tests only check lower bounds on what they did themselves
+public class TaggedBufferMetricsTest {
+
+    @Test
+    public void disabled() {
+        assumeFalse(TaggedBufferMetrics.isEnabled());
+        var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+        range(0, 100).forEach(buffer::add);
+        buffer.iterator(true);
+        buffer.stream(true).count();
+        var metrics = TaggedBufferMetrics.metrics();
+        assertAll(
+                () -> assertEquals(0, metrics.getAdds()),
+                () -> assertEquals(0, metrics.getPredicateCalls()),
+                () -> assertEquals(0, metrics.getGrows()),
+                () -> assertEquals(0, metrics.getBytesCopied()),
+                () -> assertEquals(0, metrics.getIteratorsCreated()),
+                () -> assertEquals(0, metrics.getStreamsCreated()),
+                () -> assertEquals(0, metrics.getTaggedScans()),
+                () -> assertEquals(0, metrics.getTaggedScanSlots()),
+                () -> assertFalse(ManagementFactory.getPlatformMBeanServer()
+                        .isRegistered(new ObjectName("fr.guihardbastien.boilerplate:type=TaggedBufferMetrics")))
+        );
+    }
+
+    @Test
+    public void addsAndPredicateCalls() {
+        assumeTrue(TaggedBufferMetrics.isEnabled(), "run with -Dfr.guihardbastien.boilerplate.metrics=true");
+        var metrics = TaggedBufferMetrics.metrics();
+        var adds = metrics.getAdds();
+        var predicateCalls = metrics.getPredicateCalls();
+        var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+        range(0, 100).forEach(buffer::add);
+        buffer.retag(i -> i % 3 == 0);
+        assertTrue(metrics.getAdds() - adds >= 100);
+        assertTrue(metrics.getPredicateCalls() - predicateCalls >= 200);
+    }
+
+    @Test
+    public void failingPredicateCalls() {
+        assumeTrue(TaggedBufferMetrics.isEnabled(), "run with -Dfr.guihardbastien.boilerplate.metrics=true");
+        var metrics = TaggedBufferMetrics.metrics();
+        var predicateCalls = metrics.getPredicateCalls();
+        var buffer = new TaggedBuffer<Integer>(i -> {
+            if (i == 5) {
+                throw new IllegalStateException();
+            }
+            return true;
+        });
+        assertThrows(IllegalStateException.class, () -> buffer.addAll(List.of(0, 1, 2, 3, 4, 5, 6)));
+        assertEquals(5, buffer.size(false));
+        assertTrue(metrics.getPredicateCalls() - predicateCalls >= 6);
+    }
+
+    @Test
+    public void grows() {
+        assumeTrue(TaggedBufferMetrics.isEnabled(), "run with -Dfr.guihardbastien.boilerplate.metrics=true");
+        var metrics = TaggedBufferMetrics.metrics();
+        var grows = metrics.getGrows();
+        var bytesCopied = metrics.getBytesCopied();
+        var buffer = new TaggedBuffer<Integer>(i -> true, 4, GrowthPolicy.doubling());
+        range(0, 5).forEach(buffer::add); // 4 -> 8, copies 4 references
+        assertTrue(metrics.getGrows() - grows >= 1);
+        assertTrue(metrics.getBytesCopied() - bytesCopied >= 4 * 4);
+    }
+
+    @Test
+    public void viewsAndTaggedScans() {
+        assumeTrue(TaggedBufferMetrics.isEnabled(), "run with -Dfr.guihardbastien.boilerplate.metrics=true");
+        var metrics = TaggedBufferMetrics.metrics();
+        var iterators = metrics.getIteratorsCreated();
+        var streams = metrics.getStreamsCreated();
+        var scans = metrics.getTaggedScans();
+        var scanSlots = metrics.getTaggedScanSlots();
+        var buffer = new TaggedBuffer<Integer>(i -> i == 0);
+        range(0, 1_000).forEach(buffer::add);
+        buffer.iterator(true);
+        buffer.iterator(false);
+        buffer.stream(true);
+        buffer.forEach(true, i -> { });
+        assertTrue(metrics.getIteratorsCreated() - iterators >= 2);
+        assertTrue(metrics.getStreamsCreated() - streams >= 1);
+        assertTrue(metrics.getTaggedScans() - scans >= 3);
+        assertTrue(metrics.getTaggedScanSlots() - scanSlots >= 3_000);
+    }
+
+    @Test
+    public void mxBean() throws Exception {
+        assumeTrue(TaggedBufferMetrics.isEnabled(), "run with -Dfr.guihardbastien.boilerplate.metrics=true");
+        new TaggedBuffer<String>(s -> true).add("a");
+        var server = ManagementFactory.getPlatformMBeanServer();
+        var adds = (Long) server.getAttribute(new ObjectName("fr.guihardbastien.boilerplate:type=TaggedBufferMetrics"), "Adds");
+        assertTrue(adds >= 1);
+    }
+
+    @Test
+    public void growEvents() throws Exception {
+        assumeTrue(TaggedBufferMetrics.isEnabled(), "run with -Dfr.guihardbastien.boilerplate.metrics=true");
+        var file = Files.createTempFile("metrics", ".jfr");
+        try (var recording = new Recording()) {
+            recording.enable("fr.guihardbastien.boilerplate.Grow");
+            recording.start();
+            var buffer = new TaggedBuffer<Integer>(i -> true, 1, GrowthPolicy.increment(1));
+            range(0, 10).forEach(buffer::add);
+            recording.stop();
+            recording.dump(file);
+            var events = RecordingFile.readAllEvents(file);
+            var grows = events.stream()
+                    .filter(event -> event.getEventType().getName().equals("fr.guihardbastien.boilerplate.Grow"))
+                    .filter(event -> event.getInt("oldCapacity") == 5 && event.getInt("newCapacity") == 6)
+                    .findFirst();
+            assertTrue(grows.isPresent());
+            assertEquals(5 * 4, grows.orElseThrow().getLong("bytesCopied"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -7,8 +7,12 @@ import org.junit.jupiter.api.Test;
 import java.net.URI;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 import static java.util.stream.IntStream.range;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -844,5 +848,1090 @@ public class TaggedBufferTest {
         }
     }
 
-}
+    @Nested
+    class Q9 {
+
+        @Test
+        @Tag("Q9")
+        public void predicateCalledOncePerElement() {
+            var box = new Object() {
+                int calls;
+            };
+            var buffer = new TaggedBuffer<Integer>(i -> {
+                box.calls++;
+                return i % 3 == 0;
+            });
+            range(0, 1_000).forEach(buffer::add);
+            assertEquals(1_000, box.calls);
+            for (var pass = 0; pass < 10; pass++) {
+                buffer.asTaggedList();
+                buffer.findFirst(true);
+                buffer.forEach(true, __ -> {
+                });
+                buffer.iterator(true).forEachRemaining(__ -> {
+                });
+                buffer.stream(true).count();
+            }
+            assertEquals(1_000, box.calls);
+        }
+
+        @Test
+        @Tag("Q9")
+        public void taggedTraversalsAfterGrow() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 7 == 0);
+            range(0, 1_000).forEach(buffer::add);
+            var expected = range(0, 1_000).filter(i -> i % 7 == 0).boxed().collect(toList());
+            var list = new ArrayList<Integer>();
+            buffer.forEach(true, list::add);
+            assertAll(
+                    () -> assertEquals(expected, buffer.asTaggedList()),
+                    () -> assertEquals(expected, list),
+                    () -> assertEquals(expected, buffer.stream(true).collect(toList())),
+                    () -> assertEquals(0, buffer.findFirst(true).orElseThrow())
+            );
+        }
+    }
+
+    @Nested
+    class Q10 {
+
+        @Test
+        @Tag("Q10")
+        public void iteratorSparseTags() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 1_000 == 999);
+            range(0, 100_000).forEach(buffer::add);
+            var list = new ArrayList<Integer>();
+            buffer.iterator(true).forEachRemaining(list::add);
+            assertEquals(range(0, 100_000).filter(i -> i % 1_000 == 999).boxed().collect(toList()), list);
+        }
+
+        @Test
+        @Tag("Q10")
+        public void iteratorTagsOnWordBoundaries() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 64 == 0 || i % 64 == 63);
+            range(0, 1_000).forEach(buffer::add);
+            var list = new ArrayList<Integer>();
+            buffer.iterator(true).forEachRemaining(list::add);
+            assertEquals(range(0, 1_000).filter(i -> i % 64 == 0 || i % 64 == 63).boxed().collect(toList()), list);
+        }
+
+        @Test
+        @Tag("Q10")
+        public void iteratorSparseSATB() {
+            var buffer = new TaggedBuffer<Integer>(i -> i >= 130);
+            range(0, 129).forEach(buffer::add);
+            var it = buffer.iterator(true);
+            range(129, 1_000).forEach(buffer::add);
+            assertFalse(it.hasNext());
+            assertThrows(NoSuchElementException.class, it::next);
+        }
+
+        @Test
+        @Tag("Q10")
+        public void streamSparseTags() {
+            var buffer = new TaggedBuffer<Integer>(i -> i == 5 || i == 70_000);
+            range(0, 100_000).forEach(buffer::add);
+            assertEquals(List.of(5, 70_000), buffer.stream(true).collect(toList()));
+            assertEquals(70_005, buffer.stream(true).parallel().mapToInt(i -> i).sum());
+        }
+    }
+
+    @Nested
+    class Q11 {
+
+        @Test
+        @Tag("Q11")
+        public void streamTagSpliteratorExactSize() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 3 == 0);
+            range(0, 10_000).forEach(buffer::add);
+            var spliterator = buffer.stream(true).spliterator();
+            assertAll(
+                    () -> assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED)),
+                    () -> assertTrue(spliterator.hasCharacteristics(Spliterator.SUBSIZED)),
+                    () -> assertEquals(3_334, spliterator.estimateSize()),
+                    () -> assertEquals(3_334, spliterator.getExactSizeIfKnown())
+            );
+        }
+
+        @Test
+        @Tag("Q11")
+        public void streamTagSpliteratorSplitsAtMedianTaggedElement() {
+            var buffer = new TaggedBuffer<Integer>(i -> i >= 9_000);
+            range(0, 10_000).forEach(buffer::add);
+            var spliterator = buffer.stream(true).spliterator();
+            var prefix = spliterator.trySplit();
+            assertNotNull(prefix);
+            assertEquals(500, prefix.estimateSize());
+            assertEquals(500, spliterator.estimateSize());
+            var first = new ArrayList<Integer>();
+            prefix.forEachRemaining(first::add);
+            var second = new ArrayList<Integer>();
+            spliterator.forEachRemaining(second::add);
+            assertEquals(range(9_000, 9_500).boxed().collect(toList()), first);
+            assertEquals(range(9_500, 10_000).boxed().collect(toList()), second);
+        }
+
+        @Test
+        @Tag("Q11")
+        public void streamTagSpliteratorSplitsDownToSingleElements() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 100 == 0);
+            range(0, 1_000).forEach(buffer::add);
+            var spliterator = buffer.stream(true).spliterator();
+            var spliterator2 = spliterator.trySplit();
+            var spliterator3 = spliterator.trySplit();
+            assertEquals(5, spliterator2.estimateSize());
+            assertEquals(2, spliterator3.estimateSize());
+            assertEquals(3, spliterator.estimateSize());
+            var list = new ArrayList<Integer>();
+            spliterator3.forEachRemaining(list::add);
+            spliterator.forEachRemaining(list::add);
+            assertEquals(List.of(500, 600, 700, 800, 900), list);
+        }
+
+        @Test
+        @Tag("Q11")
+        public void streamTagToArrayAndParallelCollect() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 7 == 0);
+            range(0, 100_000).forEach(buffer::add);
+            var expected = range(0, 100_000).filter(i -> i % 7 == 0).boxed().collect(toList());
+            assertEquals(expected, Arrays.asList(buffer.stream(true).parallel().toArray(Integer[]::new)));
+            assertEquals(expected, buffer.stream(true).parallel().collect(toList()));
+        }
+    }
+
+    @Nested
+    class Q12 {
+
+        @Test
+        @Tag("Q12")
+        public void streamIsSequential() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+            range(0, 100_000).forEach(buffer::add);
+            assertAll(
+                    () -> assertFalse(buffer.stream(true).isParallel()),
+                    () -> assertFalse(buffer.stream(false).isParallel())
+            );
+        }
+
+        @Test
+        @Tag("Q12")
+        public void parallelStreamOnlyAboveThreshold() {
+            var small = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+            range(0, 100).forEach(small::add);
+            var big = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+            range(0, 100_000).forEach(big::add);
+            assertAll(
+                    () -> assertFalse(small.parallelStream(false).isParallel()),
+                    () -> assertFalse(small.parallelStream(true).isParallel()),
+                    () -> assertTrue(big.parallelStream(false).isParallel()),
+                    () -> assertTrue(big.parallelStream(true).isParallel()),
+                    () -> assertTrue(small.parallelStream(true, 10).isParallel()),
+                    () -> assertEquals(2_499_950_000L, big.parallelStream(true).mapToLong(i -> i).sum())
+            );
+        }
+
+        @Test
+        @Tag("Q12")
+        public void parallelStreamMinSplitSize() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+            range(0, 2_000).forEach(buffer::add);
+            var tagged = buffer.parallelStream(true, 300).spliterator();
+            var all = buffer.parallelStream(false, 600).spliterator();
+            assertNotNull(tagged.trySplit());
+            assertNull(tagged.trySplit());
+            assertNotNull(all.trySplit());
+            assertNull(all.trySplit());
+            assertThrows(IllegalArgumentException.class, () -> buffer.parallelStream(true, 0));
+        }
+
+        @Test
+        @Tag("Q12")
+        public void parallelStreamInPool() throws InterruptedException {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+            range(0, 100_000).forEach(buffer::add);
+            var pool = new ForkJoinPool(2);
+            try {
+                var threads = buffer.parallelStream(false, pool,
+                        stream -> stream.map(__ -> Thread.currentThread()).collect(toSet()));
+                assertTrue(threads.stream().allMatch(thread -> thread instanceof ForkJoinWorkerThread
+                        && ((ForkJoinWorkerThread) thread).getPool() == pool));
+                long count = buffer.parallelStream(true, pool, Stream::count);
+                assertEquals(50_000, count);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Nested
+    class Q13 {
+
+        @Test
+        @Tag("Q13")
+        public void forEachIndexedTag() {
+            var buffer = new TaggedBuffer<String>(s -> s.charAt(0) == 'b');
+            buffer.add("foo");
+            buffer.add("bar");
+            buffer.add("whizz");
+            buffer.add("baz");
+            var list = new ArrayList<String>();
+            buffer.forEachIndexed(true, (s, i) -> list.add(i + ":" + s));
+            assertEquals(List.of("1:bar", "3:baz"), list);
+        }
+
+        @Test
+        @Tag("Q13")
+        public void forEachIndexedNoTag() {
+            var buffer = new TaggedBuffer<String>(s -> s.charAt(0) == 'b');
+            buffer.add("foo");
+            buffer.add("bar");
+            buffer.add("whizz");
+            var list = new ArrayList<String>();
+            buffer.forEachIndexed(false, (s, i) -> list.add(i + ":" + s));
+            assertEquals(List.of("0:foo", "1:bar", "2:whizz"), list);
+        }
+
+        @Test
+        @Tag("Q13")
+        public void forEachIndexedALot() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 1);
+            range(0, 10_000).forEach(buffer::add);
+            buffer.forEachIndexed(false, (element, i) -> assertEquals(i, element));
+            buffer.forEachIndexed(true, (element, i) -> assertEquals(i, element));
+        }
+
+        @Test
+        @Tag("Q13")
+        public void forEachStopsAtSize() {
+            var buffer = new TaggedBuffer<Integer>(i -> true);
+            range(0, 5).forEach(buffer::add);
+            var list = new ArrayList<Integer>();
+            buffer.forEach(false, list::add);
+            buffer.forEach(true, list::add);
+            assertEquals(List.of(0, 1, 2, 3, 4, 0, 1, 2, 3, 4), list);
+        }
+
+        @Test
+        @Tag("Q13")
+        public void forEachIndexedPrecondition() {
+            var buffer = new TaggedBuffer<Integer>(i -> true);
+            assertAll(
+                    () -> assertThrows(NullPointerException.class, () -> buffer.forEach(true, null)),
+                    () -> assertThrows(NullPointerException.class, () -> buffer.forEachIndexed(false, null))
+            );
+        }
+    }
+
+    @Nested
+    class Q14 {
+
+        @Test
+        @Tag("Q14")
+        public void findFirstTagInConstantTime() {
+            var buffer = new TaggedBuffer<Integer>(i -> i == 999_999);
+            range(0, 1_000_000).forEach(buffer::add);
+            assertTimeoutPreemptively(Duration.ofMillis(2_000), () -> {
+                for (var i = 0; i < 1_000_000; i++) {
+                    assertEquals(999_999, buffer.findFirst(true).orElseThrow());
+                }
+            });
+        }
+
+        @Test
+        @Tag("Q14")
+        public void findLast() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+            buffer.add(1);
+            buffer.add(2);
+            buffer.add(4);
+            buffer.add(5);
+            assertAll(
+                    () -> assertEquals(4, buffer.findLast(true).orElseThrow()),
+                    () -> assertEquals(5, buffer.findLast(false).orElseThrow())
+            );
+        }
+
+        @Test
+        @Tag("Q14")
+        public void findLastEmpty() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+            assertTrue(buffer.findLast(false).isEmpty());
+            buffer.add(1);
+            assertAll(
+                    () -> assertTrue(buffer.findLast(true).isEmpty()),
+                    () -> assertTrue(buffer.findFirst(true).isEmpty())
+            );
+        }
+
+        @Test
+        @Tag("Q14")
+        public void findNth() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 3 == 0);
+            range(0, 10_000).forEach(buffer::add);
+            assertAll(
+                    () -> assertEquals(0, buffer.findNth(true, 0).orElseThrow()),
+                    () -> assertEquals(3_000, buffer.findNth(true, 1_000).orElseThrow()),
+                    () -> assertEquals(9_999, buffer.findNth(true, 3_333).orElseThrow()),
+                    () -> assertTrue(buffer.findNth(true, 3_334).isEmpty()),
+                    () -> assertEquals(1_000, buffer.findNth(false, 1_000).orElseThrow()),
+                    () -> assertTrue(buffer.findNth(false, 10_000).isEmpty()),
+                    () -> assertThrows(IllegalArgumentException.class, () -> buffer.findNth(true, -1))
+            );
+        }
+
+        @Test
+        @Tag("Q14")
+        public void findDoesNotCallPredicate() {
+            var box = new Object() {
+                boolean fail;
+            };
+            var buffer = new TaggedBuffer<Integer>(i -> {
+                if (box.fail) {
+                    fail();
+                }
+                return i > 10;
+            });
+            range(0, 100).forEach(buffer::add);
+            box.fail = true;
+            assertAll(
+                    () -> assertEquals(11, buffer.findFirst(true).orElseThrow()),
+                    () -> assertEquals(99, buffer.findLast(true).orElseThrow()),
+                    () -> assertEquals(50, buffer.findNth(true, 39).orElseThrow())
+            );
+        }
+    }
+
+    @Nested
+    class Q15 {
+
+        @Test
+        @Tag("Q15")
+        public void asTaggedListInConstantTime() {
+            var box = new Object() {
+                boolean fail;
+            };
+            var buffer = new TaggedBuffer<Integer>(i -> {
+                if (box.fail) {
+                    fail();
+                }
+                return i % 2 == 0;
+            });
+            range(0, 1_000_000).forEach(buffer::add);
+            box.fail = true;
+            assertTimeoutPreemptively(Duration.ofMillis(2_000), () -> {
+                for (var i = 0; i < 1_000_000; i++) {
+                    assertEquals(500_000, buffer.asTaggedList().size());
+                }
+            });
+        }
+
+        @Test
+        @Tag("Q15")
+        public void asTaggedListSATBAfterGrow() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+            range(0, 5).forEach(buffer::add);
+            var list = buffer.asTaggedList();
+            range(5, 10_000).forEach(buffer::add);
+            assertEquals(List.of(0, 2, 4), list);
+            assertEquals(5_000, buffer.asTaggedList().size());
+        }
+
+        @Test
+        @Tag("Q15")
+        public void asTaggedListOutOfBounds() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+            range(0, 5).forEach(buffer::add);
+            var list = buffer.asTaggedList();
+            buffer.add(6);
+            assertAll(
+                    () -> assertThrows(IndexOutOfBoundsException.class, () -> list.get(3)),
+                    () -> assertThrows(IndexOutOfBoundsException.class, () -> list.get(-1))
+            );
+        }
+    }
+
+    @Nested
+    class Q16 {
+
+        @Test
+        @Tag("Q16")
+        public void addAllCollection() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+            buffer.add(0);
+            buffer.addAll(List.of(1, 2, 3, 4, 5));
+            buffer.add(6);
+            assertEquals(7, buffer.size(false));
+            assertEquals(4, buffer.size(true));
+            assertEquals(List.of(0, 2, 4, 6), buffer.asTaggedList());
+            assertEquals(List.of(0, 1, 2, 3, 4, 5, 6), buffer.stream(false).collect(toList()));
+        }
+
+        @Test
+        @Tag("Q16")
+        public void addAllArrayRange() {
+            var buffer = new TaggedBuffer<String>(s -> s.charAt(0) == 'b');
+            buffer.addAll(new String[]{"foo", "bar", "baz", "whizz"}, 1, 3);
+            assertEquals(List.of("bar", "baz"), buffer.stream(false).collect(toList()));
+            assertEquals(2, buffer.size(true));
+            assertAll(
+                    () -> assertThrows(IndexOutOfBoundsException.class, () -> buffer.addAll(new String[2], 1, 3)),
+                    () -> assertThrows(IndexOutOfBoundsException.class, () -> buffer.addAll(new String[2], 2, 1)),
+                    () -> assertThrows(NullPointerException.class, () -> buffer.addAll((String[]) null, 0, 0))
+            );
+        }
+
+        @Test
+        @Tag("Q16")
+        public void addAllStream() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 3 == 0);
+            buffer.addAll(range(0, 1_000_000).boxed());
+            assertEquals(1_000_000, buffer.size(false));
+            assertEquals(333_334, buffer.size(true));
+            assertEquals(999_999, buffer.findLast(true).orElseThrow());
+            assertEquals(range(0, 1_000_000).filter(i -> i % 3 == 0).boxed().collect(toList()), buffer.asTaggedList());
+        }
+
+        @Test
+        @Tag("Q16")
+        public void addAllManySmallBatches() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+            assertTimeoutPreemptively(Duration.ofMillis(2_000), () -> {
+                for (var i = 0; i < 1_000_000; i += 2) {
+                    buffer.addAll(List.of(i, i + 1));
+                }
+            });
+            assertEquals(500_000, buffer.size(true));
+        }
+
+        @Test
+        @Tag("Q16")
+        public void addAllStopsAtNull() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+            assertThrows(NullPointerException.class, () -> buffer.addAll(Arrays.asList(1, 2, null, 4)));
+            assertEquals(2, buffer.size(false));
+            assertEquals(1, buffer.size(true));
+            buffer.add(6);
+            assertEquals(List.of(1, 2, 6), buffer.stream(false).collect(toList()));
+            assertEquals(List.of(2, 6), buffer.asTaggedList());
+        }
+
+        @Test
+        @Tag("Q16")
+        public void addAllCallsPredicateOncePerElement() {
+            var box = new Object() {
+                int calls;
+            };
+            var buffer = new TaggedBuffer<Integer>(i -> {
+                box.calls++;
+                return true;
+            });
+            buffer.addAll(range(0, 10_000).boxed().collect(toList()));
+            assertEquals(10_000, box.calls);
+        }
+    }
+
+    @Nested
+    class Q17 {
+
+        @Test
+        @Tag("Q17")
+        public void addAllInPool() {
+            var pool = new ForkJoinPool(4);
+            try {
+                var buffer = new TaggedBuffer<Integer>(i -> i % 3 == 0);
+                buffer.add(-3);
+                buffer.addAll(range(0, 1_000_000).boxed().collect(toList()), pool);
+                buffer.add(1_000_002);
+                var expected = range(-3, 1_000_003).filter(i -> i % 3 == 0 && (i < 1_000_000 || i == 1_000_002)).boxed().collect(toList());
+                assertAll(
+                        () -> assertEquals(1_000_002, buffer.size(false)),
+                        () -> assertEquals(333_336, buffer.size(true)),
+                        () -> assertEquals(expected, buffer.asTaggedList()),
+                        () -> assertEquals(expected, buffer.stream(true).collect(toList())),
+                        () -> assertEquals(-3, buffer.findFirst(true).orElseThrow()),
+                        () -> assertEquals(1_000_002, buffer.findLast(true).orElseThrow()),
+                        () -> assertEquals(expected.get(100_000), buffer.findNth(true, 100_000).orElseThrow())
+                );
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        @Test
+        @Tag("Q17")
+        public void addAllInPoolIsDeterministic() {
+            var pool = new ForkJoinPool(8);
+            try {
+                var random = new Random(0);
+                var values = random.ints(200_000, 0, 1_000).boxed().toArray(Integer[]::new);
+                var sequential = new TaggedBuffer<Integer>(i -> i < 10);
+                sequential.addAll(values, 0, values.length);
+                for (var run = 0; run < 5; run++) {
+                    var parallel = new TaggedBuffer<Integer>(i -> i < 10);
+                    parallel.add(5);
+                    parallel.addAll(values, 0, values.length, pool);
+                    assertEquals(sequential.size(true) + 1, parallel.size(true));
+                    assertEquals(sequential.stream(true).collect(toList()), parallel.stream(true).skip(1).collect(toList()));
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        @Test
+        @Tag("Q17")
+        public void addAllInPoolAllOrNothing() {
+            var pool = new ForkJoinPool(4);
+            try {
+                var buffer = new TaggedBuffer<Integer>(i -> 100_000 / (i - 50_000) > 0);
+                buffer.add(60_000);
+                assertThrows(ArithmeticException.class, () -> buffer.addAll(range(0, 100_000).boxed().collect(toList()), pool));
+                var withNull = range(0, 100_000).boxed().collect(toList());
+                withNull.set(70_000, null);
+                assertThrows(NullPointerException.class, () -> buffer.addAll(withNull, pool));
+                assertEquals(1, buffer.size(false));
+                assertEquals(1, buffer.size(true));
+                buffer.addAll(List.of(50_001, 1), pool);
+                assertEquals(List.of(60_000, 50_001), buffer.asTaggedList());
+                assertEquals(List.of(60_000, 50_001, 1), buffer.stream(false).collect(toList()));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Nested
+    class Q18 {
+
+        @Test
+        @Tag("Q18")
+        public void retag() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+            range(0, 100_000).forEach(buffer::add);
+            buffer.retag(i -> i % 3 == 0);
+            var expected = range(0, 100_000).filter(i -> i % 3 == 0).boxed().collect(toList());
+            assertAll(
+                    () -> assertEquals(100_000, buffer.size(false)),
+                    () -> assertEquals(33_334, buffer.size(true)),
+                    () -> assertEquals(expected, buffer.asTaggedList()),
+                    () -> assertEquals(expected, buffer.stream(true).collect(toList())),
+                    () -> assertEquals(expected, buffer.parallelStream(true).collect(toList())),
+                    () -> assertEquals(0, buffer.findFirst(true).orElseThrow()),
+                    () -> assertEquals(99_999, buffer.findLast(true).orElseThrow()),
+                    () -> assertEquals(300, buffer.findNth(true, 100).orElseThrow())
+            );
+        }
+
+        @Test
+        @Tag("Q18")
+        public void retagThenAdd() {
+            var buffer = new TaggedBuffer<String>(s -> s.startsWith("a"));
+            buffer.add("abc");
+            buffer.add("bcd");
+            buffer.retag(s -> s.startsWith("b"));
+            buffer.add("bar");
+            buffer.add("ack");
+            assertEquals(List.of("bcd", "bar"), buffer.asTaggedList());
+            assertEquals(2, buffer.size(true));
+            assertEquals("bar", buffer.findLast(true).orElseThrow());
+        }
+
+        @Test
+        @Tag("Q18")
+        public void retagToNothing() {
+            var buffer = new TaggedBuffer<Integer>(i -> true);
+            range(0, 1_000).forEach(buffer::add);
+            buffer.retag(i -> false);
+            assertEquals(0, buffer.size(true));
+            assertTrue(buffer.findFirst(true).isEmpty());
+            assertTrue(buffer.findLast(true).isEmpty());
+            assertEquals(0, buffer.stream(true).count());
+            buffer.add(7);
+            assertEquals(0, buffer.size(true));
+        }
+
+        @Test
+        @Tag("Q18")
+        public void retagKeepsOldViews() {
+            var buffer = new TaggedBuffer<Integer>(i -> i < 5);
+            range(0, 10).forEach(buffer::add);
+            var list = buffer.asTaggedList();
+            var iterator = buffer.iterator(true);
+            var stream = buffer.stream(true);
+            iterator.next();
+            buffer.retag(i -> i >= 5);
+            var rest = new ArrayList<Integer>();
+            iterator.forEachRemaining(rest::add);
+            assertEquals(List.of(0, 1, 2, 3, 4), list);
+            assertEquals(List.of(1, 2, 3, 4), rest);
+            assertEquals(List.of(0, 1, 2, 3, 4), stream.collect(toList()));
+            assertEquals(List.of(5, 6, 7, 8, 9), buffer.asTaggedList());
+        }
+
+        @Test
+        @Tag("Q18")
+        public void retagInPool() {
+            var pool = new ForkJoinPool(4);
+            try {
+                var buffer = new TaggedBuffer<Integer>(i -> true);
+                buffer.addAll(range(0, 1_000_000).boxed().collect(toList()));
+                buffer.retag(i -> i % 1_000 == 0, pool);
+                assertEquals(1_000, buffer.size(true));
+                assertEquals(999_000, buffer.findLast(true).orElseThrow());
+                assertEquals(range(0, 1_000).map(i -> i * 1_000).boxed().collect(toList()), buffer.asTaggedList());
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        @Test
+        @Tag("Q18")
+        public void retagFailureKeepsTags() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+            range(0, 100_000).forEach(buffer::add);
+            assertThrows(ArithmeticException.class, () -> buffer.retag(i -> 100_000 / (i - 50_000) > 0));
+            assertEquals(50_000, buffer.size(true));
+            assertEquals(99_998, buffer.findLast(true).orElseThrow());
+            buffer.add(100_000);
+            buffer.add(100_001);
+            assertEquals(50_001, buffer.size(true));
+        }
+
+        @Test
+        @Tag("Q18")
+        public void retagNull() {
+            var buffer = new TaggedBuffer<Integer>(i -> true);
+            assertThrows(NullPointerException.class, () -> buffer.retag(null));
+            assertThrows(NullPointerException.class, () -> buffer.retag(i -> true, null));
+        }
+    }
+
+    @Nested
+    class Q19 {
+
+        @Test
+        @Tag("Q19")
+        public void compressedTagsSparse() {
+            var buffer = TaggedBuffer.<Integer>withCompressedTags(i -> i % 10_000 == 0);
+            range(0, 1_000_000).forEach(buffer::add);
+            var expected = range(0, 100).map(i -> i * 10_000).boxed().collect(toList());
+            var list = new ArrayList<Integer>();
+            buffer.forEach(true, list::add);
+            var list2 = new ArrayList<Integer>();
+            buffer.iterator(true).forEachRemaining(list2::add);
+            assertAll(
+                    () -> assertEquals(100, buffer.size(true)),
+                    () -> assertEquals(expected, list),
+                    () -> assertEquals(expected, list2),
+                    () -> assertEquals(expected, buffer.asTaggedList()),
+                    () -> assertEquals(expected, buffer.stream(true).collect(toList())),
+                    () -> assertEquals(expected, buffer.parallelStream(true, 1).collect(toList())),
+                    () -> assertEquals(100, buffer.stream(true).spliterator().getExactSizeIfKnown()),
+                    () -> assertEquals(990_000, buffer.findLast(true).orElseThrow()),
+                    () -> assertEquals(500_000, buffer.findNth(true, 50).orElseThrow())
+            );
+        }
 
+        @Test
+        @Tag("Q19")
+        public void compressedTagsDense() {
+            var buffer = TaggedBuffer.<Integer>withCompressedTags(i -> i % 10_000 != 0);
+            buffer.addAll(range(0, 1_000_000).boxed().collect(toList()));
+            var expected = range(0, 1_000_000).filter(i -> i % 10_000 != 0).boxed().collect(toList());
+            assertAll(
+                    () -> assertEquals(999_900, buffer.size(true)),
+                    () -> assertEquals(expected, buffer.asTaggedList()),
+                    () -> assertEquals(expected, buffer.parallelStream(true).collect(toList())),
+                    () -> assertEquals(1, buffer.findFirst(true).orElseThrow()),
+                    () -> assertEquals(10_001, buffer.findNth(true, 9_999).orElseThrow())
+            );
+        }
+
+        @Test
+        @Tag("Q19")
+        public void compressedTagsInPool() {
+            var pool = new ForkJoinPool(4);
+            try {
+                var buffer = TaggedBuffer.<Integer>withCompressedTags(i -> i % 3 == 0);
+                buffer.add(-3);
+                buffer.addAll(range(0, 1_000_000).boxed().collect(toList()), pool);
+                assertEquals(333_335, buffer.size(true));
+                assertEquals(999_999, buffer.findLast(true).orElseThrow());
+                buffer.retag(i -> i > 999_990, pool);
+                assertEquals(List.of(999_991, 999_992, 999_993, 999_994, 999_995, 999_996, 999_997, 999_998, 999_999),
+                        buffer.stream(true).collect(toList()));
+                buffer.add(1_000_000);
+                assertEquals(10, buffer.size(true));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Nested
+    class Q20 {
+
+        @Test
+        @Tag("Q20")
+        public void removeAfterForEachDoesNotCopy() {
+            var threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+            var buffer = new TaggedBuffer<Integer>(i -> true);
+            range(0, 1_000_000).forEach(buffer::add);
+            buffer.remove(0);
+            var sink = new int[1];
+            for (var warmup = 0; warmup < 10; warmup++) {
+                buffer.forEach(false, i -> sink[0] += i);
+                buffer.remove(warmup + 1);
+            }
+            var before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (var slot = 100; slot < 200; slot++) {
+                buffer.forEach(false, i -> sink[0] += i);
+                buffer.forEachIndexed(true, (i, s) -> sink[0] += s);
+                buffer.removeIf(false, i -> i == 1_000);
+                buffer.remove(slot);
+            }
+            var allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+            assertTrue(allocated < 100_000, "allocated " + allocated + " bytes"); // one copy of the tombstones is 125 KB
+            assertEquals(1_000_000 - 112, buffer.size(false));
+        }
+
+        @Test
+        @Tag("Q20")
+        public void compactionWaitsForTheEndOfTheTraversal() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+            range(0, 10_000).forEach(buffer::add);
+            buffer.setCompactionRatio(0.1);
+            var seen = new ArrayList<Integer>();
+            buffer.forEachIndexed(false, (elt, slot) -> {
+                seen.add(elt);
+                if (elt % 3 != 0) {
+                    assertTrue(buffer.remove(slot)); // the slot must still hold elt
+                }
+            });
+            assertEquals(range(0, 10_000).boxed().collect(toList()), seen);
+            assertEquals(range(0, 10_000).filter(i -> i % 3 == 0).boxed().collect(toList()), buffer.stream(false).collect(toList()));
+            assertEquals(range(0, 10_000).filter(i -> i % 6 == 0).boxed().collect(toList()), buffer.asTaggedList());
+            assertEquals(0, buffer.findFirst(false).orElseThrow());
+            buffer.removeIf(false, i -> {
+                buffer.forEach(true, j -> { });
+                return i % 2 == 0;
+            });
+            assertEquals(range(0, 10_000).filter(i -> i % 3 == 0 && i % 2 != 0).boxed().collect(toList()), buffer.stream(false).collect(toList()));
+        }
+
+        @Test
+        @Tag("Q20")
+        public void removeIf() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+            range(0, 100_000).forEach(buffer::add);
+            assertTrue(buffer.removeIf(false, i -> i % 3 == 0));
+            assertFalse(buffer.removeIf(true, i -> i % 3 == 0));
+            var expected = range(0, 100_000).filter(i -> i % 2 == 0 && i % 3 != 0).boxed().collect(toList());
+            var all = range(0, 100_000).filter(i -> i % 3 != 0).boxed().collect(toList());
+            var list = new ArrayList<Integer>();
+            buffer.forEach(true, list::add);
+            var list2 = new ArrayList<Integer>();
+            buffer.iterator(true).forEachRemaining(list2::add);
+            var list3 = new ArrayList<Integer>();
+            buffer.iterator(false).forEachRemaining(list3::add);
+            assertAll(
+                    () -> assertEquals(66_666, buffer.size(false)),
+                    () -> assertEquals(33_333, buffer.size(true)),
+                    () -> assertEquals(expected, list),
+                    () -> assertEquals(expected, list2),
+                    () -> assertEquals(all, list3),
+                    () -> assertEquals(expected, buffer.asTaggedList()),
+                    () -> assertEquals(expected, buffer.stream(true).collect(toList())),
+                    () -> assertEquals(expected, buffer.parallelStream(true).collect(toList())),
+                    () -> assertEquals(all, buffer.parallelStream(false, 100).collect(toList())),
+                    () -> assertEquals(2, buffer.findFirst(true).orElseThrow()),
+                    () -> assertEquals(1, buffer.findFirst(false).orElseThrow()),
+                    () -> assertEquals(99_998, buffer.findLast(true).orElseThrow()),
+                    () -> assertEquals(99_998, buffer.findLast(false).orElseThrow()),
+                    () -> assertEquals(expected.get(1_000), buffer.findNth(true, 1_000).orElseThrow()),
+                    () -> assertEquals(all.get(1_000), buffer.findNth(false, 1_000).orElseThrow())
+            );
+        }
+
+        @Test
+        @Tag("Q20")
+        public void removeBySlot() {
+            var buffer = new TaggedBuffer<String>(s -> s.length() > 1);
+            buffer.add("a");
+            buffer.add("bb");
+            buffer.add("cc");
+            buffer.add("d");
+            assertTrue(buffer.remove(1));
+            assertFalse(buffer.remove(1));
+            assertTrue(buffer.remove(3));
+            assertThrows(IndexOutOfBoundsException.class, () -> buffer.remove(4));
+            var slots = new ArrayList<Integer>();
+            buffer.forEachIndexed(false, (s, slot) -> slots.add(slot));
+            assertEquals(List.of(0, 2), slots);
+            assertEquals(List.of("cc"), buffer.asTaggedList());
+            assertEquals(List.of("a", "cc"), buffer.stream(false).collect(toList()));
+            assertEquals("cc", buffer.findLast(false).orElseThrow());
+            buffer.add("ee");
+            assertEquals(List.of("cc", "ee"), buffer.asTaggedList());
+            assertEquals(2, buffer.size(true));
+        }
+
+        @Test
+        @Tag("Q20")
+        public void compact() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+            range(0, 10_000).forEach(buffer::add);
+            buffer.removeIf(false, i -> i < 5_000 || i % 5 == 0);
+            var before = buffer.stream(false).collect(toList());
+            buffer.compact();
+            var slots = new ArrayList<Integer>();
+            buffer.forEachIndexed(false, (i, slot) -> slots.add(slot));
+            assertAll(
+                    () -> assertEquals(before, buffer.stream(false).collect(toList())),
+                    () -> assertEquals(range(0, 4_000).boxed().collect(toList()), slots),
+                    () -> assertEquals(2_000, buffer.size(true)),
+                    () -> assertEquals(5_002, buffer.findFirst(true).orElseThrow()),
+                    () -> assertEquals(9_998, buffer.findLast(true).orElseThrow()),
+                    () -> assertEquals(5_004, buffer.findNth(true, 1).orElseThrow()),
+                    () -> assertEquals(2_000, buffer.stream(true).spliterator().getExactSizeIfKnown())
+            );
+        }
+
+        @Test
+        @Tag("Q20")
+        public void compactionRatio() {
+            var buffer = new TaggedBuffer<Integer>(i -> true);
+            range(0, 100).forEach(buffer::add);
+            buffer.setCompactionRatio(0.5);
+            buffer.removeIf(false, i -> i < 50);
+            buffer.forEachIndexed(false, (i, slot) -> assertEquals(i, slot));
+            buffer.remove(50);
+            buffer.forEachIndexed(false, (i, slot) -> assertEquals(i, slot + 51));
+            buffer.remove(0);
+            buffer.forEachIndexed(false, (i, slot) -> assertEquals(i, slot + 51));
+            assertEquals(48, buffer.size(true));
+            buffer.removeIf(true, i -> i < 76);
+            buffer.forEachIndexed(false, (i, slot) -> assertEquals(i, slot + 76));
+            assertThrows(IllegalArgumentException.class, () -> buffer.setCompactionRatio(0));
+            assertThrows(IllegalArgumentException.class, () -> buffer.setCompactionRatio(1.5));
+        }
+
+        @Test
+        @Tag("Q20")
+        public void removalKeepsOldViews() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0);
+            range(0, 10).forEach(buffer::add);
+            var list = buffer.asTaggedList();
+            var iterator = buffer.iterator(false);
+            var stream = buffer.stream(true);
+            buffer.removeIf(false, i -> i < 6);
+            var iterator2 = buffer.iterator(false);
+            var stream2 = buffer.stream(true);
+            buffer.remove(9);
+            buffer.compact();
+            var rest = new ArrayList<Integer>();
+            iterator.forEachRemaining(rest::add);
+            var rest2 = new ArrayList<Integer>();
+            iterator2.forEachRemaining(rest2::add);
+            assertEquals(List.of(0, 2, 4, 6, 8), list);
+            assertEquals(range(0, 10).boxed().collect(toList()), rest);
+            assertEquals(List.of(6, 7, 8, 9), rest2);
+            assertEquals(List.of(0, 2, 4, 6, 8), stream.collect(toList()));
+            assertEquals(List.of(6, 8), stream2.collect(toList()));
+            assertEquals(List.of(6, 7, 8), buffer.stream(false).collect(toList()));
+        }
+
+        @Test
+        @Tag("Q20")
+        public void retagSkipsRemoved() {
+            var buffer = TaggedBuffer.<Integer>withCompressedTags(i -> false);
+            range(0, 100).forEach(buffer::add);
+            buffer.removeIf(false, i -> i % 2 == 0);
+            buffer.retag(i -> {
+                assertTrue(i % 2 != 0);
+                return i < 10;
+            });
+            assertEquals(List.of(1, 3, 5, 7, 9), buffer.asTaggedList());
+            assertEquals(5, buffer.size(true));
+            buffer.removeIf(true, i -> i == 5);
+            assertEquals(List.of(1, 3, 7, 9), buffer.asTaggedList());
+            buffer.compact();
+            assertEquals(List.of(1, 3, 7, 9), buffer.asTaggedList());
+            assertEquals(49, buffer.size(false));
+        }
+    }
+
+    @Nested
+    class Q21 {
+
+        @Test
+        @Tag("Q21")
+        public void initialCapacity() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0, 0);
+            range(0, 1_000).forEach(buffer::add);
+            assertEquals(500, buffer.size(true));
+            assertEquals(range(0, 1_000).boxed().collect(toList()), buffer.stream(false).collect(toList()));
+            assertThrows(IllegalArgumentException.class, () -> new TaggedBuffer<Integer>(i -> true, -1));
+        }
+
+        @Test
+        @Tag("Q21")
+        public void findOnEmptyBackingArray() {
+            var empty = new TaggedBuffer<Integer>(i -> true, 0);
+            assertTrue(empty.findFirst(false).isEmpty());
+            assertTrue(empty.findFirst(true).isEmpty());
+            assertTrue(empty.findLast(false).isEmpty());
+            var trimmed = new TaggedBuffer<Integer>(i -> true);
+            trimmed.trimToSize();
+            assertTrue(trimmed.findFirst(false).isEmpty());
+            assertTrue(trimmed.findFirst(true).isEmpty());
+            assertTrue(trimmed.findLast(false).isEmpty());
+            trimmed.add(1);
+            assertEquals(1, trimmed.findFirst(false).orElseThrow());
+        }
+
+        @Test
+        @Tag("Q21")
+        public void growthPolicies() {
+            for (var policy : List.of(GrowthPolicy.doubling(), GrowthPolicy.factor(1.1), GrowthPolicy.increment(3))) {
+                var buffer = new TaggedBuffer<Integer>(i -> i % 3 == 0, 1, policy);
+                range(0, 10_000).forEach(buffer::add);
+                buffer.addAll(range(10_000, 20_000).boxed().collect(toList()));
+                assertEquals(6_667, buffer.size(true));
+                assertEquals(range(0, 20_000).filter(i -> i % 3 == 0).boxed().collect(toList()), buffer.asTaggedList());
+            }
+            assertThrows(IllegalArgumentException.class, () -> GrowthPolicy.factor(1));
+            assertThrows(IllegalArgumentException.class, () -> GrowthPolicy.increment(0));
+            assertThrows(NullPointerException.class, () -> new TaggedBuffer<Integer>(i -> true, 4, null));
+        }
+
+        @Test
+        @Tag("Q21")
+        public void customGrowthPolicy() {
+            var calls = new ArrayList<Integer>();
+            var buffer = new TaggedBuffer<Integer>(i -> true, 2, (capacity, minCapacity) -> {
+                calls.add(capacity);
+                return capacity + 10;
+            });
+            range(0, 30).forEach(buffer::add);
+            assertEquals(List.of(2, 12, 22), calls);
+            var broken = new TaggedBuffer<Integer>(i -> true, 1, (capacity, minCapacity) -> capacity);
+            broken.add(1);
+            assertThrows(IllegalStateException.class, () -> broken.add(2));
+            assertEquals(List.of(1), broken.stream(false).collect(toList()));
+        }
+
+        @Test
+        @Tag("Q21")
+        public void ensureCapacityAndTrimToSize() {
+            var calls = new ArrayList<Integer>();
+            var buffer = new TaggedBuffer<Integer>(i -> i % 2 == 0, 4, (capacity, minCapacity) -> {
+                calls.add(capacity);
+                return 2 * capacity;
+            });
+            buffer.ensureCapacity(100_000);
+            range(0, 100_000).forEach(buffer::add);
+            assertEquals(List.of(), calls);
+            buffer.add(100_000);
+            assertEquals(List.of(100_000), calls);
+            var list = buffer.asTaggedList();
+            buffer.trimToSize();
+            buffer.trimToSize();
+            assertEquals(50_001, list.size());
+            assertEquals(50_001, buffer.size(true));
+            assertEquals(100_000, buffer.findLast(true).orElseThrow());
+            buffer.add(100_002);
+            assertEquals(List.of(100_000, 100_001), calls);
+            assertEquals(range(0, 100_003).filter(i -> i % 2 == 0 && i != 100_001).boxed().collect(toList()), buffer.stream(true).collect(toList()));
+        }
+
+        @Test
+        @Tag("Q21")
+        public void trimToSizeCompressed() {
+            var buffer = TaggedBuffer.<Integer>withCompressedTags(i -> i % 2 == 0);
+            range(0, 1_000).forEach(buffer::add);
+            buffer.trimToSize();
+            range(1_000, 2_000).forEach(buffer::add);
+            assertEquals(1_000, buffer.size(true));
+            assertEquals(1_998, buffer.findNth(true, 999).orElseThrow());
+            var empty = new TaggedBuffer<Integer>(i -> true);
+            empty.trimToSize();
+            empty.add(1);
+            assertEquals(List.of(1), empty.asTaggedList());
+        }
+    }
+
+    @Nested
+    class Q22 {
+
+        @Test
+        @Tag("Q22")
+        public void countWithoutTraversal() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 3 == 0);
+            range(0, 10_000).forEach(buffer::add);
+            assertEquals(3_334, buffer.stream(true).peek(i -> fail()).count());
+            assertEquals(10_000, buffer.stream(false).peek(i -> fail()).count());
+            buffer.removeIf(true, i -> i % 2 == 0);
+            assertEquals(1_667, buffer.stream(true).peek(i -> fail()).count());
+            assertEquals(8_333, buffer.stream(false).peek(i -> fail()).count());
+            assertEquals(1_667, buffer.stream(true).spliterator().getExactSizeIfKnown());
+        }
+
+        @Test
+        @Tag("Q22")
+        public void toArray() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 3 == 0);
+            range(0, 100_000).forEach(buffer::add);
+            var tagged = range(0, 100_000).filter(i -> i % 3 == 0).boxed().toArray(Integer[]::new);
+            assertArrayEquals(tagged, buffer.stream(true).toArray(Integer[]::new));
+            assertArrayEquals(tagged, buffer.parallelStream(true).toArray(Integer[]::new));
+            assertArrayEquals(range(0, 100_000).boxed().toArray(), buffer.parallelStream(false).toArray());
+            buffer.removeIf(false, i -> i % 5 == 0);
+            var remaining = range(0, 100_000).filter(i -> i % 3 == 0 && i % 5 != 0).boxed().toArray(Integer[]::new);
+            assertArrayEquals(remaining, buffer.stream(true).toArray(Integer[]::new));
+            assertArrayEquals(remaining, buffer.parallelStream(true).toArray(Integer[]::new));
+        }
+
+        @Test
+        @Tag("Q22")
+        public void bulkTraversal() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 7 == 0);
+            range(0, 50_000).forEach(buffer::add);
+            var spliterator = buffer.stream(true).spliterator();
+            var first = new ArrayList<Integer>();
+            spliterator.tryAdvance(first::add);
+            var rest = new ArrayList<Integer>();
+            spliterator.forEachRemaining(rest::add);
+            assertEquals(List.of(0), first);
+            assertEquals(range(1, 50_000).filter(i -> i % 7 == 0).boxed().collect(toList()), rest);
+            assertEquals(0, spliterator.estimateSize());
+            assertFalse(spliterator.tryAdvance(i -> fail()));
+            assertEquals(range(0, 50_000).filter(i -> i % 7 == 0).mapToLong(i -> i).sum(), buffer.parallelStream(true).mapToLong(i -> i).sum());
+            assertEquals(range(0, 50_000).sum(), buffer.stream(false).reduce(0, Integer::sum));
+        }
+
+        @Test
+        @Tag("Q22")
+        public void iteratorForEachRemaining() {
+            var buffer = new TaggedBuffer<Integer>(i -> i % 4 == 0);
+            range(0, 10_000).forEach(buffer::add);
+            for (var onlyTagged : List.of(true, false)) {
+                var iterator = buffer.iterator(onlyTagged);
+                var list = new ArrayList<Integer>();
+                list.add(iterator.next());
+                list.add(iterator.next());
+                iterator.forEachRemaining(list::add);
+                assertFalse(iterator.hasNext());
+                assertEquals(buffer.stream(onlyTagged).collect(toList()), list);
+            }
+            buffer.removeIf(false, i -> i % 3 == 0);
+            var iterator = buffer.iterator(true);
+            var list = new ArrayList<Integer>();
+            list.add(iterator.next());
+            iterator.forEachRemaining(list::add);
+            assertEquals(range(0, 10_000).filter(i -> i % 4 == 0 && i % 3 != 0).boxed().collect(toList()), list);
+            assertThrows(NoSuchElementException.class, iterator::next);
+        }
+    }
+
+}
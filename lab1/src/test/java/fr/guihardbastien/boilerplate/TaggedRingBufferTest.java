@@ -0,0 +1,146 @@
+package fr.guihardbastien.boilerplate;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TaggedRingBufferTest {
+
+    @Test
+    public void addAndSize() {
+        var buffer = new TaggedRingBuffer<Integer>(4, i -> i % 2 == 0);
+        buffer.add(1);
+        buffer.add(2);
+        buffer.add(3);
+        assertEquals(1, buffer.size(true));
+        assertEquals(3, buffer.size(false));
+        buffer.add(4);
+        buffer.add(5);
+        buffer.add(7);
+        assertEquals(4, buffer.capacity());
+        assertEquals(4, buffer.size(false));
+        assertEquals(1, buffer.size(true));
+        assertEquals(List.of(3, 4, 5, 7), buffer.stream(false).collect(toList()));
+        assertEquals(List.of(4), buffer.stream(true).collect(toList()));
+    }
+
+    @Test
+    public void slidingWindow() {
+        var buffer = new TaggedRingBuffer<Integer>(1_000, i -> i % 3 == 0);
+        for (var n = 0; n < 10_000; n += 77) {
+            range(n, n + 77).forEach(buffer::add);
+            var start = Math.max(0, n + 77 - 1_000);
+            var expected = range(start, n + 77).filter(i -> i % 3 == 0).boxed().collect(toList());
+            var list = new ArrayList<Integer>();
+            buffer.forEach(true, list::add);
+            var list2 = new ArrayList<Integer>();
+            buffer.iterator(true).forEachRemaining(list2::add);
+            assertEquals(expected.size(), buffer.size(true));
+            assertEquals(expected, list);
+            assertEquals(expected, list2);
+            assertEquals(expected, buffer.stream(true).collect(toList()));
+            assertEquals(range(start, n + 77).boxed().collect(toList()), buffer.stream(false).collect(toList()));
+            assertEquals(expected.get(0), buffer.findFirst(true).orElseThrow());
+            assertEquals(start, buffer.findFirst(false).orElseThrow());
+        }
+    }
+
+    @Test
+    public void parallelStreams() {
+        var buffer = new TaggedRingBuffer<Integer>(100_000, i -> i % 7 == 0);
+        range(0, 250_001).forEach(buffer::add);
+        var expected = range(150_001, 250_001).filter(i -> i % 7 == 0).boxed().collect(toList());
+        assertAll(
+                () -> assertEquals(expected, buffer.parallelStream(true).collect(toList())),
+                () -> assertEquals(range(150_001, 250_001).boxed().collect(toList()), buffer.parallelStream(false).collect(toList())),
+                () -> assertEquals(expected.size(), buffer.parallelStream(true).spliterator().getExactSizeIfKnown()),
+                () -> assertEquals(expected.stream().mapToLong(i -> i).sum(), buffer.parallelStream(true).mapToLong(i -> i).sum())
+        );
+    }
+
+    @Test
+    public void bulkTraversals() {
+        var buffer = new TaggedRingBuffer<Integer>(1_000, i -> i % 3 == 0);
+        range(0, 1_700).forEach(buffer::add);
+        var expected = range(700, 1_700).filter(i -> i % 3 == 0).boxed().collect(toList());
+        var iterator = buffer.iterator(true);
+        var list = new ArrayList<Integer>();
+        list.add(iterator.next());
+        iterator.forEachRemaining(list::add);
+        assertEquals(expected, list);
+        assertFalse(iterator.hasNext());
+        var spliterator = buffer.stream(false).spliterator();
+        var prefix = spliterator.trySplit();
+        var list2 = new ArrayList<Integer>();
+        prefix.forEachRemaining(list2::add);
+        spliterator.forEachRemaining(list2::add);
+        assertEquals(range(700, 1_700).boxed().collect(toList()), list2);
+        var stale = buffer.iterator(false);
+        buffer.add(1_700);
+        assertThrows(ConcurrentModificationException.class, () -> stale.forEachRemaining(i -> { }));
+    }
+
+    @Test
+    public void emptyBuffer() {
+        var buffer = new TaggedRingBuffer<String>(10, s -> fail());
+        assertAll(
+                () -> assertTrue(buffer.findFirst(true).isEmpty()),
+                () -> assertTrue(buffer.findFirst(false).isEmpty()),
+                () -> assertFalse(buffer.iterator(false).hasNext()),
+                () -> assertThrows(NoSuchElementException.class, () -> buffer.iterator(true).next()),
+                () -> assertEquals(0, buffer.stream(true).count())
+        );
+    }
+
+    @Test
+    public void modificationInvalidatesViews() {
+        var buffer = new TaggedRingBuffer<Integer>(3, i -> true);
+        range(0, 3).forEach(buffer::add);
+        var iterator = buffer.iterator(false);
+        var stream = buffer.stream(true);
+        iterator.next();
+        buffer.add(3);
+        assertThrows(ConcurrentModificationException.class, iterator::next);
+        assertThrows(ConcurrentModificationException.class, () -> stream.collect(toList()));
+        assertThrows(ConcurrentModificationException.class, () -> buffer.forEach(false, buffer::add));
+    }
+
+    @Test
+    public void addDoesNotAllocate() {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var buffer = new TaggedRingBuffer<Integer>(1_024, i -> i % 2 == 0);
+        var values = range(0, 4_096).boxed().toArray(Integer[]::new);
+        for (var warmup = 0; warmup < 100; warmup++) {
+            for (var value : values) {
+                buffer.add(value);
+            }
+        }
+        var before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (var run = 0; run < 100; run++) {
+            for (var value : values) {
+                buffer.add(value);
+            }
+        }
+        var allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        assertTrue(allocated < 1_000, "allocated " + allocated + " bytes");
+        assertEquals(512, buffer.size(true));
+    }
+
+    @Test
+    public void preconditions() {
+        assertAll(
+                () -> assertThrows(IllegalArgumentException.class, () -> new TaggedRingBuffer<Integer>(0, i -> true)),
+                () -> assertThrows(NullPointerException.class, () -> new TaggedRingBuffer<Integer>(1, null)),
+                () -> assertThrows(NullPointerException.class, () -> new TaggedRingBuffer<Integer>(1, i -> true).add(null)),
+                () -> assertThrows(NullPointerException.class, () -> new TaggedRingBuffer<Integer>(1, i -> true).forEach(true, null))
+        );
+    }
+}